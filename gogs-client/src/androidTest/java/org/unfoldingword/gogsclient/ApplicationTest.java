@@ -5,7 +5,10 @@ import android.test.InstrumentationTestCase;
 import org.json.JSONObject;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * <a href="http://d.android.com/tools/testing/testing_android.html">Testing Fundamentals</a>
@@ -199,4 +202,38 @@ public class ApplicationTest extends InstrumentationTestCase {
         assertFalse(api.deleteUser(fakeUser, adminUser));
         assertEquals(api.getLastResponse().code, 404);
     }
-}
\ No newline at end of file
+
+    public void test18ProbeExistence() throws Exception {
+        assertTrue(api.userExists(adminUser, adminUser));
+        assertFalse(api.userExists(fakeUser, adminUser));
+
+        int limit = 2;
+        List<Repository> repos = api.searchRepos("d", 0, limit);
+        assertTrue(api.repoExists(repos.get(0), adminUser));
+        // a repository that does not exist under an owner that does
+        String owner = repos.get(0).getFullName().split("/")[0];
+        JSONObject fakeJson = new JSONObject();
+        fakeJson.put("full_name", owner + "/fake-repository-" + UUID.randomUUID());
+        Repository fakeRepo = Repository.fromJSON(fakeJson);
+        assertFalse(api.repoExists(fakeRepo, adminUser));
+        assertEquals(404, api.getLastResponse().code);
+
+        // malformed names are rejected without a request
+        Response before = api.getLastResponse();
+        assertFalse(api.repoExists(new Repository("fake-repository", "", false), adminUser));
+        assertSame(before, api.getLastResponse());
+    }
+
+    public void test19GetRepos() throws Exception {
+        int limit = 2;
+        List<Repository> repos = api.searchRepos("d", 0, limit);
+        // duplicates are only fetched once
+        List<Repository> requested = new ArrayList<>(repos);
+        requested.addAll(repos);
+        Map<String, Repository> found = api.getRepos(requested, adminUser);
+        assertEquals(found.size(), repos.size());
+        for(Repository repo:repos) {
+            assertNotNull(found.get(repo.getFullName()));
+        }
+    }
+}
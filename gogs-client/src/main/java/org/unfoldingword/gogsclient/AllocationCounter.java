@@ -0,0 +1,56 @@
+package org.unfoldingword.gogsclient;
+
+import java.lang.reflect.Method;
+
+/**
+ * Reads the number of bytes allocated by the current thread where the JVM exposes it.
+ * The HotSpot ThreadMXBean is looked up by reflection since it does not exist on Android
+ */
+class AllocationCounter {
+
+    private static final Object BEAN;
+    private static final Method ALLOCATED_BYTES;
+
+    static {
+        Object bean = null;
+        Method method = null;
+        try {
+            Object threads = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if(type.isInstance(threads)
+                    && (Boolean)type.getMethod("isThreadAllocatedMemorySupported").invoke(threads)
+                    && (Boolean)type.getMethod("isThreadAllocatedMemoryEnabled").invoke(threads)) {
+                bean = threads;
+                method = type.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (Exception | LinkageError e) {
+            // not available on this platform
+        }
+        BEAN = bean;
+        ALLOCATED_BYTES = method;
+    }
+
+    private AllocationCounter() {}
+
+    /**
+     * @return true if allocations can be measured
+     */
+    static boolean isSupported() {
+        return ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * Returns the total number of bytes the current thread has allocated
+     * @return the number of bytes or -1 if it cannot be measured
+     */
+    static long current() {
+        if(ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long)ALLOCATED_BYTES.invoke(BEAN, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
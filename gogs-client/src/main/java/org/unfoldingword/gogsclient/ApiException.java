@@ -0,0 +1,37 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * Reports a failed api call to code that expects an exception
+ */
+public class ApiException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    // responses are not serializable so a deserialized exception only keeps its message and cause
+    private final transient Response response;
+
+    /**
+     * @param response the failed response
+     */
+    public ApiException(Response response) {
+        super(response.getError() + " error from " + response.getEndpoint() + (response.code != -1 ? " (" + response.code + ")" : ""),
+                response.getErrorCause());
+        this.response = response;
+    }
+
+    /**
+     * Returns the failed response
+     * @return the response or null if the exception was deserialized
+     */
+    public Response getResponse() {
+        return response;
+    }
+
+    /**
+     * Returns why the call failed
+     * @return the error or null if the exception was deserialized
+     */
+    public ErrorType getError() {
+        return response != null ? response.getError() : null;
+    }
+}
@@ -0,0 +1,62 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that fails once more than a number of bytes have been read
+ */
+class BoundedInputStream extends FilterInputStream {
+
+    private final long limit;
+    private long count = 0;
+
+    /**
+     * @param in
+     * @param limit the maximum number of bytes that may be read
+     */
+    BoundedInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b != -1) {
+            add(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if(read > 0) {
+            add(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = super.skip(count);
+        if(skipped > 0) {
+            add(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void add(long read) throws ResponseTooLargeException {
+        count += read;
+        if(count > limit) {
+            throw new ResponseTooLargeException(limit);
+        }
+    }
+}
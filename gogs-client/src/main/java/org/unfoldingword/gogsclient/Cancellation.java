@@ -0,0 +1,324 @@
+package org.unfoldingword.gogsclient;
+
+import android.annotation.SuppressLint;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels api calls and bounds them with a deadline.
+ *
+ * A cancellation applies to every call made on a thread while it is entered, including retries and failover.
+ * Calls queued on a {@link Dispatcher} inherit the cancellation of the thread that submitted them
+ * so batch operations are cancelled as a whole. Cancelling aborts any connection that is in flight.
+ *
+ * <pre>
+ * Cancellation cancellation = Cancellation.withTimeout(3000);
+ * Cancellation.Scope scope = cancellation.enter();
+ * try {
+ *     api.getRepo(repo, user);
+ * } finally {
+ *     scope.close();
+ * }
+ * // e.g. when the screen is closed
+ * cancellation.cancel();
+ * </pre>
+ *
+ * Cancellations created by {@link #child(long)} should be closed once their calls are done
+ * so the parent does not keep them for the rest of its life.
+ */
+public class Cancellation implements Closeable {
+
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+    /**
+     * The number of cancelled timeouts after which the timer's queue is purged on platforms that cannot
+     * remove them when they are cancelled
+     */
+    private static final int PURGE_INTERVAL = 100;
+    private static ScheduledThreadPoolExecutor timer = null;
+    private static boolean removesOnCancel = false;
+    private static int cancelledTimeouts = 0;
+
+    private final long deadline;
+    private final List<Runnable> listeners = new ArrayList<>();
+    private boolean cancelled = false;
+    private Cancellation parent = null;
+    private Runnable parentListener = null;
+    private ScheduledFuture<?> scheduled = null;
+
+    /**
+     * Creates a cancellation without a deadline
+     */
+    public Cancellation() {
+        this(Long.MAX_VALUE);
+    }
+
+    private Cancellation(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Creates a cancellation that cancels itself once the timeout elapses
+     * @param timeout the number of milliseconds calls may take
+     * @return
+     */
+    public static Cancellation withTimeout(long timeout) {
+        final Cancellation cancellation = new Cancellation(System.currentTimeMillis() + Math.max(0, timeout));
+        ScheduledFuture<?> future = getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancellation.cancel();
+            }
+        }, Math.max(0, timeout), TimeUnit.MILLISECONDS);
+        synchronized (cancellation) {
+            cancellation.scheduled = future;
+        }
+        return cancellation;
+    }
+
+    /**
+     * Creates a cancellation that is also cancelled when this one is.
+     * The child's deadline is the earlier of the timeout and this cancellation's deadline.
+     * The child stops following this cancellation once it is cancelled or closed
+     * @param timeout the number of milliseconds calls may take
+     * @return
+     */
+    public Cancellation child(long timeout) {
+        final Cancellation child = remaining() > timeout ? withTimeout(timeout) : new Cancellation(deadline);
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                child.cancel();
+            }
+        };
+        synchronized (child) {
+            if(child.cancelled) {
+                // the child's timeout already elapsed so there is nothing to follow
+                return child;
+            }
+            child.parent = this;
+            child.parentListener = listener;
+        }
+        addListener(listener);
+        boolean detached;
+        synchronized (child) {
+            detached = child.parent == null;
+        }
+        if(detached) {
+            // the child was cancelled before its listener was added
+            removeListener(listener);
+        }
+        return child;
+    }
+
+    /**
+     * Returns the cancellation entered on the current thread
+     * @return the cancellation or null
+     */
+    public static Cancellation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Applies this cancellation to calls made on the current thread until the scope is closed
+     * @return
+     */
+    public Scope enter() {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(this);
+        return scope;
+    }
+
+    /**
+     * Cancels the calls and aborts any connections in flight
+     */
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if(cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        detach();
+        for(Runnable listener:toRun) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Releases the cancellation once its calls are done without cancelling them.
+     * A child stops following its parent and any timeout stops being tracked
+     */
+    @Override
+    public void close() {
+        detach();
+    }
+
+    /**
+     * Removes the child's listener from its parent and stops the timeout
+     */
+    private void detach() {
+        Cancellation p;
+        Runnable listener;
+        ScheduledFuture<?> future;
+        synchronized (this) {
+            p = parent;
+            listener = parentListener;
+            future = scheduled;
+            parent = null;
+            parentListener = null;
+            scheduled = null;
+        }
+        if(p != null) {
+            p.removeListener(listener);
+        }
+        if(future != null && future.cancel(false)) {
+            purgeCancelled();
+        }
+    }
+
+    /**
+     * Checks if the calls have been cancelled or the deadline has passed
+     * @return
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled || System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Returns the number of milliseconds until the deadline
+     * @return the remaining time or Long.MAX_VALUE if there is no deadline
+     */
+    public long remaining() {
+        if(deadline == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Registers an action to run when cancelled.
+     * The action runs immediately if this has already been cancelled
+     * @param listener
+     */
+    void addListener(Runnable listener) {
+        synchronized (this) {
+            if(!cancelled) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Removes an action that no longer needs to run
+     * @param listener
+     */
+    synchronized void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of actions waiting for the cancellation
+     * @return
+     */
+    synchronized int getListenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * Returns the number of timeouts waiting in the timer's queue
+     * @return
+     */
+    static synchronized int getScheduledCount() {
+        return timer != null ? timer.getQueue().size() : 0;
+    }
+
+    /**
+     * Limits a timeout to the time remaining on the cancellation entered on the current thread
+     * @param timeout the configured timeout in milliseconds
+     * @return
+     */
+    static int limitTimeout(int timeout) {
+        Cancellation cancellation = CURRENT.get();
+        if(cancellation == null) {
+            return timeout;
+        }
+        long remaining = cancellation.remaining();
+        if(remaining == Long.MAX_VALUE || (timeout > 0 && timeout <= remaining)) {
+            return timeout;
+        }
+        // a timeout of 0 means wait forever so never go below 1
+        return (int)Math.max(1, Math.min(remaining, Integer.MAX_VALUE));
+    }
+
+    @SuppressLint("NewApi")
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if(timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "gogs-cancellation-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                // most timeouts are cancelled long before they are due so they should not wait in the queue until then
+                timer.setRemoveOnCancelPolicy(true);
+                removesOnCancel = true;
+            } catch (NoSuchMethodError e) {
+                // added in android 5.0. Older platforms purge the queue in batches instead
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Removes cancelled timeouts from the timer's queue on platforms that do not do so when they are cancelled
+     */
+    private static void purgeCancelled() {
+        ScheduledThreadPoolExecutor executor;
+        synchronized (Cancellation.class) {
+            if(removesOnCancel || ++cancelledTimeouts < PURGE_INTERVAL) {
+                return;
+            }
+            cancelledTimeouts = 0;
+            executor = timer;
+        }
+        executor.purge();
+    }
+
+    /**
+     * Restores the previously entered cancellation when closed
+     */
+    public static class Scope implements Closeable {
+        private final Cancellation previous;
+        private boolean closed = false;
+
+        private Scope(Cancellation previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if(!closed) {
+                closed = true;
+                if(previous != null) {
+                    CURRENT.set(previous);
+                } else {
+                    CURRENT.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Provides api clients for many accounts that share the same server.
+ *
+ * Every account gets its own {@link GogsAPI} so credentials, cached private data, metrics and the last response
+ * are never mixed between accounts. The clients share the transport and its connection pool, the dispatcher and
+ * a cache of public repositories, and changes made by one account evict the stale data cached by the others.
+ *
+ * The number of requests sent at the same time is limited for the whole pool. When requests have to wait,
+ * accounts take turns by weighted fair queuing so a single busy account cannot hold back the others.
+ * Each account can also be given a request rate budget.
+ *
+ * <pre>
+ * ClientPool pool = new ClientPool("https://try.gogs.io/api/v1", 16);
+ * pool.setRateLimit(10, 20);
+ * GogsAPI api = pool.getClient("translator");
+ * api.listRepos(user);
+ * </pre>
+ */
+public class ClientPool {
+
+    private final Transport transport;
+    private final String apiUrl;
+    private final String[] mirrorUrls;
+    private final FairScheduler scheduler;
+    private final Dispatcher dispatcher = new Dispatcher(4);
+    private final ExpiringCache<GogsAPI.CachedRepo> publicRepos = new ExpiringCache<>(30 * 1000, 5000);
+    private final Map<String, Account> accounts = new LinkedHashMap<>();
+    private double requestsPerSecond = 0;
+    private int burst = 1;
+
+    /**
+     * Creates a pool that sends requests over the default transport
+     * @param apiUrl the api end point e.g. "https://try.gogs.io/api/v1"
+     * @param maxConcurrentRequests the number of requests the accounts may have in flight together
+     */
+    public ClientPool(String apiUrl, int maxConcurrentRequests) {
+        this(new UrlConnectionTransport(), maxConcurrentRequests, apiUrl);
+    }
+
+    /**
+     * Creates a pool
+     * @param transport performs the http exchanges of every account
+     * @param maxConcurrentRequests the number of requests the accounts may have in flight together
+     * @param apiUrl the api end point of the primary server
+     * @param mirrorUrls the api end points of read replicas or mirrors
+     */
+    public ClientPool(Transport transport, int maxConcurrentRequests, String apiUrl, String... mirrorUrls) {
+        this.transport = transport;
+        this.apiUrl = apiUrl;
+        this.mirrorUrls = mirrorUrls;
+        this.scheduler = new FairScheduler(maxConcurrentRequests);
+    }
+
+    /**
+     * Limits how many requests each account may send.
+     * This applies to accounts whose client is created afterwards
+     * @param requestsPerSecond the sustained rate or 0 for no limit
+     * @param burst the number of requests that may be sent at once after a quiet period
+     */
+    public synchronized void setRateLimit(double requestsPerSecond, int burst) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * Returns the client of an account, creating it with a weight of 1 if needed
+     * @param account identifies the account e.g. the username
+     * @return
+     */
+    public GogsAPI getClient(String account) {
+        return getClient(account, 1);
+    }
+
+    /**
+     * Returns the client of an account, creating it if needed
+     * @param account identifies the account e.g. the username
+     * @param weight the account's share of the requests when they have to wait. Only used when the client is created
+     * @return
+     */
+    public synchronized GogsAPI getClient(String account, double weight) {
+        Account a = accounts.get(account);
+        if(a == null) {
+            a = new Account(weight, requestsPerSecond > 0 ? new RateLimiter(requestsPerSecond, burst) : null);
+            accounts.put(account, a);
+        }
+        return a.api;
+    }
+
+    /**
+     * Changes an account's share of the requests when they have to wait
+     * @param account
+     * @param weight
+     */
+    public synchronized void setWeight(String account, double weight) {
+        Account a = accounts.get(account);
+        if(a != null) {
+            a.share.setWeight(scheduler, weight);
+        }
+    }
+
+    /**
+     * Discards the client of an account along with its credentials and cached data
+     * @param account
+     */
+    public synchronized void removeClient(String account) {
+        Account a = accounts.remove(account);
+        if(a != null) {
+            a.api.clearCredentials();
+        }
+    }
+
+    /**
+     * Returns the accounts that have a client
+     * @return
+     */
+    public synchronized Set<String> getAccounts() {
+        return new TreeSet<>(accounts.keySet());
+    }
+
+    /**
+     * Returns the number of requests waiting for their turn
+     * @return
+     */
+    public int getWaitingCount() {
+        return scheduler.getWaitingCount();
+    }
+
+    /**
+     * Returns the dispatcher shared by the clients
+     * @return
+     */
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Passes a change made by one account on to the caches of the others
+     * @param source the client that made the change
+     * @param invalidation
+     */
+    private void evictOthers(GogsAPI source, Invalidation invalidation) {
+        List<GogsAPI> others = new ArrayList<>();
+        synchronized (this) {
+            for(Account a:accounts.values()) {
+                if(a.api != source) {
+                    others.add(a.api);
+                }
+            }
+        }
+        for(GogsAPI api:others) {
+            api.evict(invalidation);
+        }
+    }
+
+    /**
+     * The client of an account and what it is allowed to send
+     */
+    private class Account implements GogsAPI.Admission {
+        final GogsAPI api;
+        final FairScheduler.Account share;
+        private final RateLimiter limiter;
+        private final Object pause = new Object();
+
+        Account(double weight, RateLimiter limiter) {
+            this.share = new FairScheduler.Account(weight);
+            this.limiter = limiter;
+            this.api = new GogsAPI(transport, apiUrl, mirrorUrls);
+            this.api.setDispatcher(dispatcher);
+            this.api.setPublicRepoCache(publicRepos);
+            this.api.setAdmission(this);
+            this.api.addInvalidationListener(new GogsAPI.InvalidationListener() {
+                @Override
+                public void onInvalidate(Invalidation invalidation) {
+                    evictOthers(api, invalidation);
+                }
+            });
+        }
+
+        @Override
+        public boolean acquire() {
+            if(limiter != null && !awaitBudget()) {
+                return false;
+            }
+            return scheduler.acquire(share);
+        }
+
+        @Override
+        public void release() {
+            scheduler.release();
+        }
+
+        /**
+         * Waits until the account's rate limit allows another request
+         * @return false if the call was cancelled or would pass its deadline while waiting
+         */
+        private boolean awaitBudget() {
+            long delay = limiter.reserve();
+            if(delay == 0) {
+                return true;
+            }
+            Cancellation cancellation = Cancellation.current();
+            if(cancellation != null && cancellation.remaining() < delay) {
+                limiter.refund();
+                return false;
+            }
+            Runnable wake = null;
+            if(cancellation != null) {
+                wake = new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (pause) {
+                            pause.notifyAll();
+                        }
+                    }
+                };
+                cancellation.addListener(wake);
+            }
+            try {
+                long until = System.currentTimeMillis() + delay;
+                synchronized (pause) {
+                    long remaining;
+                    while((remaining = until - System.currentTimeMillis()) > 0) {
+                        if(cancellation != null && cancellation.isCancelled()) {
+                            limiter.refund();
+                            return false;
+                        }
+                        try {
+                            pause.wait(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            limiter.refund();
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            } finally {
+                if(wake != null) {
+                    cancellation.removeListener(wake);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Caches the Authorization header of each user so it is not rebuilt on every request.
+ * Entries are keyed by the user instance and are ignored once the user's username, password or token changes.
+ */
+class CredentialCache {
+
+    private final Map<User, Entry> entries = new WeakHashMap<>();
+
+    /**
+     * Returns the cached Authorization header for the user
+     * @param user
+     * @return the header or null if it has not been cached or the user's credentials have changed
+     */
+    synchronized String get(User user) {
+        Entry entry = entries.get(user);
+        if(entry != null) {
+            if(entry.matches(user)) {
+                return entry.header;
+            }
+            entries.remove(user);
+        }
+        return null;
+    }
+
+    /**
+     * Caches the Authorization header for the user's current credentials
+     * @param user
+     * @param header
+     */
+    synchronized void put(User user, String header) {
+        entries.put(user, new Entry(user, header));
+    }
+
+    /**
+     * Removes the cached header for the user
+     * @param user
+     */
+    synchronized void invalidate(User user) {
+        entries.remove(user);
+    }
+
+    /**
+     * Removes all cached headers
+     */
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        final String username;
+        final String password;
+        final Token token;
+        final String sha1;
+        final String header;
+
+        Entry(User user, String header) {
+            this.username = user.getUsername();
+            this.password = user.getPassword();
+            this.token = user.token;
+            this.sha1 = user.token != null ? user.token.toString() : null;
+            this.header = header;
+        }
+
+        boolean matches(User user) {
+            return user.token == token
+                    && equal(sha1, token != null ? token.toString() : null)
+                    && equal(username, user.getUsername())
+                    && equal(password, user.getPassword());
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
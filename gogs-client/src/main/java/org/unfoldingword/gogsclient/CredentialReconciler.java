@@ -0,0 +1,394 @@
+package org.unfoldingword.gogsclient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Ensures a user has a desired set of public keys and tokens using as few api calls as possible.
+ *
+ * The user's keys and tokens are listed once and cached. Each reconciliation diffs the desired state against
+ * the cached listing and only issues the creates and deletes that are actually needed, running them concurrently
+ * as background work on the api's {@link Dispatcher}.
+ */
+public class CredentialReconciler {
+
+    private final GogsAPI api;
+    private final Map<String, Listing> listings = new HashMap<>();
+    private final GogsAPI.InvalidationListener invalidationListener = new GogsAPI.InvalidationListener() {
+        @Override
+        public void onInvalidate(Invalidation invalidation) {
+            apply(invalidation);
+        }
+    };
+
+    /**
+     * Creates a new reconciler
+     * @param api the api used to apply the changes
+     */
+    public CredentialReconciler(GogsAPI api) {
+        this.api = api;
+        api.addWeakInvalidationListener(invalidationListener);
+    }
+
+    /**
+     * Brings the user's public keys and tokens in line with the desired state.
+     * Tokens cannot be deleted through the api so extra tokens are always left alone.
+     * @param user the user who's credentials will be reconciled. Requires username and password
+     * @param keys the public keys the user should have. Requires title, key. May be null
+     * @param tokens the tokens the user should have. Requires name. May be null
+     * @param prune if true keys that are not in the desired set will be deleted
+     * @return the outcome of the reconciliation or null if the current state could not be listed
+     */
+    public Result reconcile(final User user, List<PublicKey> keys, List<Token> tokens, boolean prune) {
+        if(user == null) {
+            return null;
+        }
+        if(keys == null) {
+            keys = Collections.emptyList();
+        }
+        if(tokens == null) {
+            tokens = Collections.emptyList();
+        }
+
+        Dispatcher dispatcher = api.getDispatcher();
+        final Listing listing = getListing(user, dispatcher);
+        if(listing == null) {
+            return null;
+        }
+
+        List<PublicKey> currentKeys = listing.getKeys();
+        List<Token> currentTokens = listing.getTokens();
+        Result result = new Result();
+        List<Future<PublicKey>> keyCreates = new ArrayList<>();
+        List<PublicKey> keysToDelete = new ArrayList<>();
+        List<Future<Boolean>> keyDeletes = new ArrayList<>();
+        List<Future<Token>> tokenCreates = new ArrayList<>();
+
+        // diff keys by their key material
+        Set<String> desiredKeys = new HashSet<>();
+        Map<String, PublicKey> existingKeys = new HashMap<>();
+        for(PublicKey key:currentKeys) {
+            existingKeys.put(normalizeKey(key.getKey()), key);
+        }
+        for(final PublicKey key:keys) {
+            String material = normalizeKey(key.getKey());
+            if(!desiredKeys.add(material)) {
+                continue;
+            }
+            PublicKey existing = existingKeys.get(material);
+            if(existing != null) {
+                result.keys.add(existing);
+            } else {
+                keyCreates.add(dispatcher.submit(Dispatcher.Priority.BACKGROUND, new Callable<PublicKey>() {
+                    @Override
+                    public PublicKey call() {
+                        return api.createPublicKey(key, user);
+                    }
+                }));
+            }
+        }
+        if(prune) {
+            for(final PublicKey key:currentKeys) {
+                if(!desiredKeys.contains(normalizeKey(key.getKey()))) {
+                    keysToDelete.add(key);
+                    keyDeletes.add(dispatcher.submit(Dispatcher.Priority.BACKGROUND, new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return api.deletePublicKey(key, user);
+                        }
+                    }));
+                }
+            }
+        }
+
+        // diff tokens by name
+        Map<String, Token> existingTokens = new HashMap<>();
+        for(Token token:currentTokens) {
+            existingTokens.put(token.getName(), token);
+        }
+        Set<String> desiredTokens = new HashSet<>();
+        for(final Token token:tokens) {
+            if(!desiredTokens.add(token.getName())) {
+                continue;
+            }
+            Token existing = existingTokens.get(token.getName());
+            if(existing != null) {
+                result.tokens.add(existing);
+            } else {
+                tokenCreates.add(dispatcher.submit(Dispatcher.Priority.BACKGROUND, new Callable<Token>() {
+                    @Override
+                    public Token call() {
+                        return api.createToken(token, user);
+                    }
+                }));
+            }
+        }
+
+        // collect results. The cached listing is kept current by the api's invalidation events
+        for(Future<PublicKey> future:keyCreates) {
+            PublicKey key = await(future);
+            if(key != null) {
+                result.keys.add(key);
+                result.createdKeys.add(key);
+            } else {
+                result.failures ++;
+            }
+        }
+        for(int i = 0; i < keyDeletes.size(); i ++) {
+            PublicKey key = keysToDelete.get(i);
+            if(Boolean.TRUE.equals(await(keyDeletes.get(i)))) {
+                result.deletedKeys.add(key);
+            } else {
+                result.failures ++;
+            }
+        }
+        for(Future<Token> future:tokenCreates) {
+            Token token = await(future);
+            if(token != null) {
+                result.tokens.add(token);
+                result.createdTokens.add(token);
+            } else {
+                result.failures ++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discards the cached listing for the user so the next reconciliation lists the keys and tokens again
+     * @param user
+     */
+    public void invalidate(User user) {
+        if(user != null) {
+            synchronized (listings) {
+                listings.remove(user.getUsername());
+            }
+        }
+    }
+
+    /**
+     * Applies a change made through the api to the cached listing of the key or token owner
+     * @param invalidation
+     */
+    private void apply(Invalidation invalidation) {
+        if(invalidation.resource != Invalidation.Resource.PUBLIC_KEY && invalidation.resource != Invalidation.Resource.TOKEN) {
+            if(invalidation.resource == Invalidation.Resource.USER && invalidation.action == Invalidation.Action.DELETED) {
+                synchronized (listings) {
+                    listings.remove(invalidation.owner);
+                }
+            }
+            return;
+        }
+        Listing listing;
+        synchronized (listings) {
+            listing = listings.get(invalidation.owner);
+            if(listing == null) {
+                return;
+            }
+            if(invalidation.action != Invalidation.Action.DELETED && invalidation.value == null) {
+                // the server changed but the new item is unknown so list again next time
+                listings.remove(invalidation.owner);
+                return;
+            }
+        }
+        if(invalidation.resource == Invalidation.Resource.TOKEN) {
+            listing.add((Token)invalidation.value);
+        } else if(invalidation.action == Invalidation.Action.DELETED) {
+            listing.removeKey(invalidation.id);
+        } else {
+            listing.add((PublicKey)invalidation.value);
+        }
+    }
+
+    /**
+     * Returns the cached listing for the user or fetches the keys and tokens concurrently
+     * @param user
+     * @param dispatcher
+     * @return the listing or null if it could not be retrieved
+     */
+    private Listing getListing(final User user, Dispatcher dispatcher) {
+        synchronized (listings) {
+            Listing listing = listings.get(user.getUsername());
+            if(listing != null) {
+                return listing;
+            }
+        }
+        Future<List<PublicKey>> keys = dispatcher.submit(Dispatcher.Priority.BACKGROUND, new Callable<List<PublicKey>>() {
+            @Override
+            public List<PublicKey> call() {
+                return fetchKeys(user);
+            }
+        });
+        Future<List<Token>> tokens = dispatcher.submit(Dispatcher.Priority.BACKGROUND, new Callable<List<Token>>() {
+            @Override
+            public List<Token> call() {
+                return fetchTokens(user);
+            }
+        });
+        Listing listing = new Listing(await(keys), await(tokens));
+        if(listing.keys == null || listing.tokens == null) {
+            return null;
+        }
+        synchronized (listings) {
+            listings.put(user.getUsername(), listing);
+        }
+        return listing;
+    }
+
+    /**
+     * Lists the user's keys
+     * @param user
+     * @return the keys or null if the request failed
+     */
+    private List<PublicKey> fetchKeys(User user) {
+        Response response = api.request(Endpoint.USER_KEYS.route(user.getUsername()), user, null, null, null);
+        if(response.code == 200 && response.data != null) {
+            try {
+                JSONArray data = api.parseArray(response);
+                List<PublicKey> keys = new ArrayList<>();
+                for(int i = 0; i < data.length(); i ++) {
+                    PublicKey key = PublicKey.fromJSON(data.getJSONObject(i));
+                    if(key != null) {
+                        keys.add(key);
+                    }
+                }
+                return keys;
+            } catch (JSONException e) {
+                api.parseFailed(response, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the user's tokens
+     * @param user
+     * @return the tokens or null if the request failed
+     */
+    private List<Token> fetchTokens(User user) {
+        Response response = api.basicRequest(Endpoint.USER_TOKENS.route(user.getUsername()), user, null);
+        if(response.code == 200 && response.data != null) {
+            try {
+                JSONArray data = api.parseArray(response);
+                List<Token> tokens = new ArrayList<>();
+                for(int i = 0; i < data.length(); i ++) {
+                    Token token = Token.fromJSON(data.getJSONObject(i));
+                    if(token != null) {
+                        tokens.add(token);
+                    }
+                }
+                return tokens;
+            } catch (JSONException e) {
+                api.parseFailed(response, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reduces a key to its type and key material so comments and whitespace are ignored
+     * @param key
+     * @return
+     */
+    private static String normalizeKey(String key) {
+        if(key == null) {
+            return "";
+        }
+        String[] parts = key.trim().split("\\s+");
+        if(parts.length >= 2) {
+            return parts[0] + " " + parts[1];
+        }
+        return key.trim();
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // treated the same as a failed request
+        }
+        return null;
+    }
+
+    /**
+     * The cached keys and tokens of a user
+     */
+    private static class Listing {
+        final List<PublicKey> keys;
+        final List<Token> tokens;
+
+        Listing(List<PublicKey> keys, List<Token> tokens) {
+            this.keys = keys;
+            this.tokens = tokens;
+        }
+
+        synchronized List<PublicKey> getKeys() {
+            return new ArrayList<>(keys);
+        }
+
+        synchronized List<Token> getTokens() {
+            return new ArrayList<>(tokens);
+        }
+
+        synchronized void add(PublicKey key) {
+            removeKey(key.getId());
+            keys.add(key);
+        }
+
+        synchronized void removeKey(int id) {
+            Iterator<PublicKey> it = keys.iterator();
+            while(it.hasNext()) {
+                if(it.next().getId() == id) {
+                    it.remove();
+                }
+            }
+        }
+
+        synchronized void add(Token token) {
+            tokens.add(token);
+        }
+    }
+
+    /**
+     * The outcome of a reconciliation
+     */
+    public static class Result {
+        /**
+         * The user's keys that match the desired set
+         */
+        public final List<PublicKey> keys = new ArrayList<>();
+        /**
+         * The user's tokens that match the desired set
+         */
+        public final List<Token> tokens = new ArrayList<>();
+        public final List<PublicKey> createdKeys = new ArrayList<>();
+        public final List<PublicKey> deletedKeys = new ArrayList<>();
+        public final List<Token> createdTokens = new ArrayList<>();
+        /**
+         * The number of creates or deletes that failed
+         */
+        public int failures = 0;
+
+        /**
+         * Checks if every change was applied
+         * @return
+         */
+        public boolean isSuccessful() {
+            return failures == 0;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs api calls in the background according to their priority.
+ *
+ * Queued work always starts in priority order so background work never delays an interactive call waiting
+ * for a slot. Each priority has its own concurrency cap and one slot is held back from background work
+ * so an interactive call can start even while background work saturates the dispatcher.
+ * A dispatcher with a single slot has none to spare so it does not accept background work.
+ */
+public class Dispatcher {
+
+    public enum Priority {
+        /**
+         * Calls a user is actively waiting on
+         */
+        INTERACTIVE,
+        /**
+         * Regular work
+         */
+        NORMAL,
+        /**
+         * Bulk work such as syncing and reconciliation that may be delayed
+         */
+        BACKGROUND
+    }
+
+    private final int maxConcurrency;
+    private final int[] limits;
+    private final int[] running = new int[Priority.values().length];
+    private final List<ArrayDeque<Task<?>>> queues = new ArrayList<>();
+    private final ExecutorService executor;
+    private final ThreadLocal<Boolean> isWorker = new ThreadLocal<>();
+    private int totalRunning = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Creates a new dispatcher
+     * @param maxConcurrency the maximum number of calls to run at once. At least 2 are needed to run background calls
+     */
+    public Dispatcher(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.limits = new int[]{
+                this.maxConcurrency,
+                this.maxConcurrency,
+                Math.max(1, this.maxConcurrency - 1)
+        };
+        for(int i = 0; i < Priority.values().length; i ++) {
+            queues.add(new ArrayDeque<Task<?>>());
+        }
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "gogs-dispatcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Changes the maximum number of calls of a priority that may run at once
+     * @param priority
+     * @param limit
+     */
+    public synchronized void setConcurrencyLimit(Priority priority, int limit) {
+        limits[priority.ordinal()] = Math.max(1, Math.min(limit, maxConcurrency));
+        schedule();
+    }
+
+    /**
+     * Queues a call.
+     * Calls submitted from a call that is already running on this dispatcher run immediately on the
+     * calling thread so nested work cannot deadlock waiting for a slot its parent is holding.
+     * @param priority the priority of the call
+     * @param callable the call to run
+     * @return a future that completes with the result of the call. Cancelling it before it starts means it never runs
+     * @throws IllegalArgumentException if a background call is submitted to a dispatcher with a single slot
+     */
+    public <T> Future<T> submit(Priority priority, Callable<T> callable) {
+        checkPriority(priority);
+        Task<T> task = new Task<>(callable, priority, Cancellation.current());
+        if(Boolean.TRUE.equals(isWorker.get())) {
+            task.run();
+            return task;
+        }
+        return enqueue(task);
+    }
+
+    /**
+     * Queues a call even when submitted from a running call.
+     * Only for calls that never wait on other calls of this dispatcher. The call does not inherit the
+     * cancellation of the submitting thread
+     * @param priority the priority of the call
+     * @param callable the call to run
+     * @return a future that completes with the result of the call
+     */
+    <T> Future<T> enqueue(Priority priority, Callable<T> callable) {
+        checkPriority(priority);
+        return enqueue(new Task<>(callable, priority, null));
+    }
+
+    /**
+     * Background calls would take the only slot of a single slot dispatcher and block interactive calls
+     * @param priority
+     */
+    private void checkPriority(Priority priority) {
+        if(priority == Priority.BACKGROUND && maxConcurrency < 2) {
+            throw new IllegalArgumentException("Background calls need a dispatcher with at least 2 slots");
+        }
+    }
+
+    private <T> Future<T> enqueue(Task<T> task) {
+        synchronized (this) {
+            if(shutdown) {
+                throw new IllegalStateException("The dispatcher has been shut down");
+            }
+            queues.get(task.priority.ordinal()).add(task);
+            schedule();
+        }
+        return task;
+    }
+
+    /**
+     * Returns the number of calls of a priority waiting to run
+     * @param priority
+     * @return
+     */
+    public synchronized int getQueuedCount(Priority priority) {
+        return queues.get(priority.ordinal()).size();
+    }
+
+    /**
+     * Returns the number of calls of a priority currently running
+     * @param priority
+     * @return
+     */
+    public synchronized int getRunningCount(Priority priority) {
+        return running[priority.ordinal()];
+    }
+
+    /**
+     * Stops accepting calls and cancels the ones still queued. Running calls are allowed to finish
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for(ArrayDeque<Task<?>> queue:queues) {
+                for(Task<?> task:queue) {
+                    task.cancel(false);
+                }
+                queue.clear();
+            }
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Starts as many queued calls as the limits allow, highest priority first
+     */
+    private void schedule() {
+        for(Priority priority:Priority.values()) {
+            int p = priority.ordinal();
+            ArrayDeque<Task<?>> queue = queues.get(p);
+            while(!queue.isEmpty() && running[p] < limits[p] && hasCapacity(priority)) {
+                final Task<?> task = queue.poll();
+                if(task.isCancelled()) {
+                    continue;
+                }
+                running[p] ++;
+                totalRunning ++;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        isWorker.set(true);
+                        // calls made by the task obey the cancellation of the thread that submitted it
+                        Cancellation.Scope scope = task.cancellation != null ? task.cancellation.enter() : null;
+                        try {
+                            task.run();
+                        } finally {
+                            if(scope != null) {
+                                scope.close();
+                            }
+                            isWorker.remove();
+                            finished(task.priority);
+                        }
+                    }
+                });
+            }
+            if(!queue.isEmpty() && running[p] < limits[p]) {
+                // out of slots. Lower priorities wait until this one has been served
+                return;
+            }
+        }
+    }
+
+    private boolean hasCapacity(Priority priority) {
+        if(priority == Priority.BACKGROUND) {
+            // keep a slot free for interactive calls
+            return totalRunning < maxConcurrency - 1;
+        }
+        return totalRunning < maxConcurrency;
+    }
+
+    private synchronized void finished(Priority priority) {
+        running[priority.ordinal()] --;
+        totalRunning --;
+        if(!shutdown) {
+            schedule();
+        }
+    }
+
+    private static class Task<T> extends FutureTask<T> {
+        final Priority priority;
+        final Cancellation cancellation;
+        private final Runnable onCancel;
+
+        Task(Callable<T> callable, Priority priority, Cancellation cancellation) {
+            super(callable);
+            this.priority = priority;
+            this.cancellation = cancellation;
+            if(cancellation != null) {
+                // drop the task if it is cancelled while still queued
+                this.onCancel = new Runnable() {
+                    @Override
+                    public void run() {
+                        Task.this.cancel(false);
+                    }
+                };
+                cancellation.addListener(onCancel);
+            } else {
+                this.onCancel = null;
+            }
+        }
+
+        @Override
+        protected void done() {
+            if(onCancel != null) {
+                cancellation.removeListener(onCancel);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.Arrays;
+
+/**
+ * The encoded request body of a model along with the values of the model's mutable fields it was encoded from.
+ * Models keep one so they are only encoded again after one of those fields changes
+ */
+class EncodedBody {
+
+    private final byte[] bytes;
+    private final Object[] fields;
+
+    /**
+     * @param body the encoded body
+     * @param fields the values of the mutable fields. Arrays must be copies
+     */
+    EncodedBody(JSONBody body, Object... fields) {
+        this.bytes = body.toByteArray();
+        this.fields = fields;
+    }
+
+    /**
+     * Checks if the body was encoded from these values
+     * @param values
+     * @return
+     */
+    boolean matches(Object... values) {
+        if(values.length != fields.length) {
+            return false;
+        }
+        for(int i = 0; i < values.length; i ++) {
+            Object a = fields[i];
+            Object b = values[i];
+            if(a == b) {
+                continue;
+            }
+            if(a == null || b == null) {
+                return false;
+            }
+            if(a instanceof Object[] && b instanceof Object[]) {
+                if(!Arrays.equals((Object[])a, (Object[])b)) {
+                    return false;
+                }
+            } else if(!a.equals(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a request body that sends the encoded bytes
+     * @return
+     */
+    JSONBody toJSONBody() {
+        return JSONBody.wrap(bytes);
+    }
+}
@@ -0,0 +1,182 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A precompiled api url template.
+ * Placeholders are written as "{}" for a single encoded path segment or query value
+ * and "{*}" for a path that may contain several "/" separated segments.
+ * Templates are parsed once so building a url does not involve any regex or format parsing.
+ */
+class Endpoint {
+
+    static final Endpoint ADMIN_USERS = new Endpoint("/admin/users");
+    static final Endpoint ADMIN_USER = new Endpoint("/admin/users/{}");
+    static final Endpoint SEARCH_USERS = new Endpoint("/users/search?q={}&limit={}");
+    static final Endpoint USER = new Endpoint("/users/{}");
+    static final Endpoint SEARCH_REPOS = new Endpoint("/repos/search?q={}&uid={}&limit={}");
+    static final Endpoint SEARCH_REPOS_PAGE = new Endpoint("/repos/search?q={}&uid={}&limit={}&page={}");
+    static final Endpoint USER_REPOS = new Endpoint("/user/repos");
+    static final Endpoint REPO = new Endpoint("/repos/{*}");
+    static final Endpoint OWNER_REPO = new Endpoint("/repos/{}/{}");
+    static final Endpoint USER_TOKENS = new Endpoint("/users/{}/tokens");
+    static final Endpoint USER_KEYS = new Endpoint("/users/{}/keys");
+    static final Endpoint CURRENT_USER_KEYS = new Endpoint("/user/keys");
+    static final Endpoint CURRENT_USER_KEY = new Endpoint("/user/keys/{}");
+
+    private static final int SEGMENT = 0;
+    private static final int PATH = 1;
+    private static final int QUERY = 2;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    final String template;
+    private final String[] literals;
+    private final int[] kinds;
+
+    /**
+     * Compiles a url template
+     * @param template the path relative to the api url e.g. "/users/{}/tokens"
+     */
+    Endpoint(String template) {
+        this.template = template;
+        List<String> literals = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        boolean inQuery = false;
+        int start = 0;
+        int i = 0;
+        while(i < template.length()) {
+            char c = template.charAt(i);
+            if(c == '?') {
+                inQuery = true;
+            }
+            if(c == '{' && template.startsWith("{}", i)) {
+                literals.add(template.substring(start, i));
+                kinds.add(inQuery ? QUERY : SEGMENT);
+                i += 2;
+                start = i;
+            } else if(c == '{' && template.startsWith("{*}", i)) {
+                literals.add(template.substring(start, i));
+                kinds.add(inQuery ? QUERY : PATH);
+                i += 3;
+                start = i;
+            } else {
+                i ++;
+            }
+        }
+        literals.add(template.substring(start));
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.kinds = new int[kinds.size()];
+        for(int k = 0; k < this.kinds.length; k ++) {
+            this.kinds[k] = kinds.get(k);
+        }
+    }
+
+    /**
+     * Binds values to the placeholders of this template
+     * @param params one value for each placeholder
+     * @return
+     */
+    Route route(Object... params) {
+        if(params.length != kinds.length) {
+            throw new IllegalArgumentException(template + " expects " + kinds.length + " parameters");
+        }
+        return new Route(this, params);
+    }
+
+    /**
+     * Builds the absolute url
+     * @param baseUrl the api url without a trailing slash
+     * @param params
+     * @return
+     */
+    String build(String baseUrl, Object[] params) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        sb.append(baseUrl);
+        for(int i = 0; i < kinds.length; i ++) {
+            sb.append(literals[i]);
+            Object value = params[i];
+            if(value instanceof Integer) {
+                sb.append(((Integer)value).intValue());
+            } else if(value != null) {
+                encode(sb, value.toString(), kinds[i]);
+            }
+        }
+        sb.append(literals[kinds.length]);
+        return sb.toString();
+    }
+
+    /**
+     * Percent encodes a value as UTF-8
+     * @param sb
+     * @param value
+     * @param kind
+     */
+    private static void encode(StringBuilder sb, String value, int kind) {
+        for(int i = 0; i < value.length(); i ++) {
+            char c = value.charAt(i);
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~'
+                    || (c == '/' && kind == PATH)) {
+                sb.append(c);
+            } else if(c < 0x80) {
+                appendByte(sb, c);
+            } else if(c < 0x800) {
+                appendByte(sb, 0xC0 | (c >> 6));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            } else if(Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++ i));
+                appendByte(sb, 0xF0 | (cp >> 18));
+                appendByte(sb, 0x80 | ((cp >> 12) & 0x3F));
+                appendByte(sb, 0x80 | ((cp >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (cp & 0x3F));
+            } else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogates become the replacement character like browsers encode them
+                encode(sb, "\uFFFD", kind);
+            } else {
+                appendByte(sb, 0xE0 | (c >> 12));
+                appendByte(sb, 0x80 | ((c >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    /**
+     * An endpoint with its parameters bound
+     */
+    static class Route {
+        final Endpoint endpoint;
+        private final Object[] params;
+
+        private Route(Endpoint endpoint, Object[] params) {
+            this.endpoint = endpoint;
+            this.params = params;
+        }
+
+        /**
+         * Builds the absolute url
+         * @param baseUrl the api url without a trailing slash
+         * @return
+         */
+        String toUrl(String baseUrl) {
+            return endpoint.build(baseUrl, params);
+        }
+    }
+}
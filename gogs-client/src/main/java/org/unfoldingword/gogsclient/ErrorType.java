@@ -0,0 +1,47 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * Classifies why an api call failed
+ */
+public enum ErrorType {
+    /**
+     * The server could not be reached or the connection was lost
+     */
+    NETWORK,
+    /**
+     * The server did not respond in time
+     */
+    TIMEOUT,
+    /**
+     * The call was cancelled or its deadline passed
+     */
+    CANCELLED,
+    /**
+     * The credentials were missing, invalid or lack permission (401 or 403)
+     */
+    AUTH,
+    /**
+     * The requested resource does not exist (404)
+     */
+    NOT_FOUND,
+    /**
+     * The resource already exists or conflicts with another (409 or 422)
+     */
+    CONFLICT,
+    /**
+     * The server rejected the request for another reason (4xx)
+     */
+    REQUEST,
+    /**
+     * The server failed to process the request (5xx)
+     */
+    SERVER,
+    /**
+     * The server responded but the data could not be parsed
+     */
+    PARSE,
+    /**
+     * The response body was larger than allowed and was abandoned
+     */
+    TOO_LARGE
+}
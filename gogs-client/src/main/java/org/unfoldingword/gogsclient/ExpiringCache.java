@@ -0,0 +1,98 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small thread safe cache whose entries expire after a fixed time.
+ * The least recently used entries are evicted once the cache is full
+ */
+class ExpiringCache<V> {
+
+    private final int maxSize;
+    private long ttl;
+    private final LinkedHashMap<String, Item<V>> entries;
+
+    /**
+     * @param ttl the number of milliseconds entries remain valid
+     * @param maxSize the maximum number of entries to keep
+     */
+    ExpiringCache(long ttl, final int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Item<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Item<V>> eldest) {
+                return size() > ExpiringCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a value that has not expired
+     * @param key
+     * @return the value or null
+     */
+    synchronized V get(String key) {
+        Item<V> entry = entries.get(key);
+        if(entry == null) {
+            return null;
+        }
+        if(System.currentTimeMillis() - entry.storedAt >= ttl) {
+            // keep the value around for getStale()
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Returns a value even if it has expired.
+     * This is useful for revalidating stale values with a conditional request
+     * @param key
+     * @return the value or null
+     */
+    synchronized V getStale(String key) {
+        Item<V> entry = entries.get(key);
+        return entry != null ? entry.value : null;
+    }
+
+    synchronized void put(String key, V value) {
+        entries.put(key, new Item<>(value, System.currentTimeMillis()));
+    }
+
+    synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes every entry whose key begins with the prefix
+     * @param prefix
+     */
+    synchronized void removePrefix(String prefix) {
+        Iterator<String> it = entries.keySet().iterator();
+        while(it.hasNext()) {
+            if(it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    private static class Item<V> {
+        final V value;
+        final long storedAt;
+
+        Item(V value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+}
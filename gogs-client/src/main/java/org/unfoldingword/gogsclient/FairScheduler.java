@@ -0,0 +1,151 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Shares a fixed number of concurrent requests between accounts by weighted fair queuing.
+ *
+ * This is self-clocked fair queuing: each request is stamped with a virtual finish time, the later of the
+ * account's previous stamp and the stamp of the request last admitted, plus the inverse of the account's weight.
+ * Waiting requests are admitted in stamp order, so an account with many queued requests gets its weighted share
+ * of the slots while the requests of a quiet account go ahead of the backlog.
+ */
+class FairScheduler {
+
+    private final int slots;
+    private int running = 0;
+    private double virtualTime = 0;
+    private long sequence = 0;
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>(11, new Comparator<Ticket>() {
+        @Override
+        public int compare(Ticket a, Ticket b) {
+            int order = Double.compare(a.stamp, b.stamp);
+            return order != 0 ? order : Long.compare(a.sequence, b.sequence);
+        }
+    });
+
+    /**
+     * @param slots the number of requests that may run at the same time
+     */
+    FairScheduler(int slots) {
+        this.slots = Math.max(1, slots);
+    }
+
+    /**
+     * Waits for a slot.
+     * The wait ends early if the cancellation entered on the current thread is cancelled or the thread is interrupted
+     * @param account the account making the request
+     * @return true if a slot was acquired and must be released
+     */
+    boolean acquire(Account account) {
+        Ticket ticket;
+        synchronized (this) {
+            double stamp = Math.max(virtualTime, account.finish) + 1.0 / account.weight;
+            account.finish = stamp;
+            if(running < slots && waiting.isEmpty()) {
+                running ++;
+                virtualTime = stamp;
+                return true;
+            }
+            ticket = new Ticket(stamp, sequence ++);
+            waiting.add(ticket);
+        }
+        final Cancellation cancellation = Cancellation.current();
+        Runnable wake = null;
+        if(cancellation != null) {
+            wake = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (FairScheduler.this) {
+                        FairScheduler.this.notifyAll();
+                    }
+                }
+            };
+            cancellation.addListener(wake);
+        }
+        try {
+            synchronized (this) {
+                while(!ticket.admitted) {
+                    if(cancellation != null && cancellation.isCancelled()) {
+                        waiting.remove(ticket);
+                        return false;
+                    }
+                    long remaining = cancellation != null ? cancellation.remaining() : Long.MAX_VALUE;
+                    try {
+                        if(remaining == Long.MAX_VALUE) {
+                            wait();
+                        } else {
+                            wait(Math.max(1, remaining));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        if(!ticket.admitted) {
+                            waiting.remove(ticket);
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        } finally {
+            if(wake != null) {
+                cancellation.removeListener(wake);
+            }
+        }
+    }
+
+    /**
+     * Frees a slot and admits the waiting request with the earliest stamp
+     */
+    synchronized void release() {
+        running --;
+        Ticket next = waiting.poll();
+        if(next != null) {
+            running ++;
+            next.admitted = true;
+            virtualTime = next.stamp;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a slot
+     * @return
+     */
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * The share of an account. The fields are guarded by the scheduler
+     */
+    static class Account {
+        private double weight;
+        private double finish = 0;
+
+        /**
+         * @param weight the relative share of the slots
+         */
+        Account(double weight) {
+            this.weight = Math.max(0.001, weight);
+        }
+
+        void setWeight(FairScheduler scheduler, double weight) {
+            synchronized (scheduler) {
+                this.weight = Math.max(0.001, weight);
+            }
+        }
+    }
+
+    private static class Ticket {
+        final double stamp;
+        final long sequence;
+        boolean admitted = false;
+
+        Ticket(double stamp, long sequence) {
+            this.stamp = stamp;
+            this.sequence = sequence;
+        }
+    }
+}
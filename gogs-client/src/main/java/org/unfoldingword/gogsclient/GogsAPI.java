@@ -1,36 +1,136 @@
 package org.unfoldingword.gogsclient;
 
 import android.util.Base64;
+import android.util.JsonReader;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
-import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 public class GogsAPI {
 
+    /**
+     * The default maximum size of a decoded response body
+     */
+    public static final long DEFAULT_MAX_RESPONSE_SIZE = 16 * 1024 * 1024;
+    /**
+     * The default size above which listing bodies are moved out of memory into a temp file
+     */
+    public static final long DEFAULT_SPILL_THRESHOLD = 512 * 1024;
+    private static final StreamPublisher.Decoder<Repository> REPOSITORY_DECODER = new StreamPublisher.Decoder<Repository>() {
+        @Override
+        public Repository decode(JSONObject json) {
+            return Repository.fromJSON(json);
+        }
+    };
+
     private int readTimeout = 5000;
     private int connectionTimeout = 5000;
-    private final String baseUrl;
+    private final Server primary;
+    private final Server[] servers;
     private Response lastResponse = null;
+    private final ThreadLocal<Response> threadResponse = new ThreadLocal<>();
+    private final CredentialCache credentials = new CredentialCache();
+    private String tokenAuthName = null;
+    private final ConcurrentMap<String, FutureTask<Token>> tokenRequests = new ConcurrentHashMap<>();
+    private final Metrics metrics = new Metrics();
+    private final SlowCallLog slowCalls = new SlowCallLog(50);
+    private Dispatcher dispatcher = null;
+    private final ExpiringCache<Boolean> probes = new ExpiringCache<>(30 * 1000, 1000);
+    private final ExpiringCache<CachedRepo> repoCache = new ExpiringCache<>(30 * 1000, 1000);
+    private final Transport transport;
+    private volatile ErrorListener errorListener = null;
+    private final List<InvalidationListener> invalidationListeners = new CopyOnWriteArrayList<>();
+    private final List<WeakReference<InvalidationListener>> weakInvalidationListeners = new CopyOnWriteArrayList<>();
+    private volatile long maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+    private final Map<String, Long> endpointMaxResponseSizes = new ConcurrentHashMap<>();
+    private volatile long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+    private volatile File spillDirectory = null;
+    private volatile int minAdaptiveTimeout = 0;
+    private volatile int maxAdaptiveTimeout = 0;
+    private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private volatile Admission admission = null;
+    private volatile ExpiringCache<CachedRepo> publicRepoCache = null;
 
     /**
      * Creates an instance of the api client
      * @param apiUrl the api end point e.g. "https://try.gogs.io/api/v1"
      */
     public GogsAPI(String apiUrl) {
-        this.baseUrl = apiUrl.replaceAll("/+$", "") + "/";
+        this(apiUrl, new String[0]);
+    }
+
+    /**
+     * Creates an instance of the api client that spreads reads across several servers.
+     * Reads go to the healthy server with the lowest average latency and fail over to the others
+     * when a server cannot be reached. Writes are always sent to the primary server, as are requests
+     * authenticated with a password and the token endpoints so credentials are only given to the primary.
+     * The mirrors must serve the same data and accept the same tokens as the primary.
+     * @param apiUrl the api end point of the primary server e.g. "https://try.gogs.io/api/v1"
+     * @param mirrorUrls the api end points of read replicas or mirrors
+     */
+    public GogsAPI(String apiUrl, String... mirrorUrls) {
+        this(new UrlConnectionTransport(), apiUrl, mirrorUrls);
+    }
+
+    /**
+     * Creates an instance of the api client that sends its requests with the transport
+     * @param transport performs the http exchanges e.g. an {@link OkHttpTransport} to multiplex requests over HTTP/2
+     * @param apiUrl the api end point of the primary server e.g. "https://try.gogs.io/api/v1"
+     * @param mirrorUrls the api end points of read replicas or mirrors
+     */
+    public GogsAPI(Transport transport, String apiUrl, String... mirrorUrls) {
+        this.transport = transport;
+        this.primary = new Server(trimUrl(apiUrl), true);
+        this.servers = new Server[mirrorUrls.length + 1];
+        this.servers[0] = this.primary;
+        for(int i = 0; i < mirrorUrls.length; i ++) {
+            this.servers[i + 1] = new Server(trimUrl(mirrorUrls[i]), false);
+        }
+    }
+
+    /**
+     * Removes trailing slashes from the url
+     * @param url
+     * @return
+     */
+    private static String trimUrl(String url) {
+        int end = url.length();
+        while(end > 0 && url.charAt(end - 1) == '/') {
+            end --;
+        }
+        return url.substring(0, end);
     }
 
     /**
@@ -41,6 +141,243 @@ public class GogsAPI {
         return this.lastResponse;
     }
 
+    /**
+     * Returns the last response received on the current thread.
+     * Unlike {@link #getLastResponse()} this is not affected by calls made concurrently on other threads
+     * @return
+     */
+    Response getThreadResponse() {
+        return this.threadResponse.get();
+    }
+
+    /**
+     * Sets the listener that is notified whenever a call fails.
+     * This is a single place to log or report errors instead of inspecting every response
+     * @param listener
+     */
+    public void setErrorListener(ErrorListener listener) {
+        this.errorListener = listener;
+    }
+
+    /**
+     * Registers a listener that is told about every change this client makes to the server.
+     * Use this to update caches layered on top of the client instead of flushing or polling them
+     * @param listener
+     */
+    public void addInvalidationListener(InvalidationListener listener) {
+        this.invalidationListeners.add(listener);
+    }
+
+    /**
+     * Stops notifying a listener registered with {@link #addInvalidationListener(InvalidationListener)}
+     * @param listener
+     */
+    public void removeInvalidationListener(InvalidationListener listener) {
+        this.invalidationListeners.remove(listener);
+    }
+
+    /**
+     * Registers a listener without keeping it alive.
+     * Caches built on the client use this so they can be discarded without being unregistered
+     * @param listener
+     */
+    void addWeakInvalidationListener(InvalidationListener listener) {
+        this.weakInvalidationListeners.add(new WeakReference<>(listener));
+    }
+
+    /**
+     * Sets what a request must wait for before it is sent. Used by {@link ClientPool} to share the server fairly
+     * @param admission
+     */
+    void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Shares public repositories with other clients through the cache.
+     * Repositories are keyed the same way as those fetched without a user
+     * @param cache
+     */
+    void setPublicRepoCache(ExpiringCache<CachedRepo> cache) {
+        this.publicRepoCache = cache;
+    }
+
+    /**
+     * Removes everything a change makes stale from the client's caches
+     * @param invalidation
+     */
+    void evict(Invalidation invalidation) {
+        ExpiringCache<CachedRepo> shared = this.publicRepoCache;
+        switch(invalidation.resource) {
+            case REPOSITORY:
+                this.repoCache.removePrefix(invalidation.getFullName() + "@");
+                this.probes.removePrefix("repo:" + invalidation.getFullName() + "@");
+                if(shared != null) {
+                    shared.removePrefix(invalidation.getFullName() + "@");
+                }
+                break;
+            case USER:
+                this.probes.removePrefix("user:" + invalidation.owner + "@");
+                if(invalidation.action == Invalidation.Action.DELETED) {
+                    // the user's repositories are deleted with it
+                    this.repoCache.removePrefix(invalidation.owner + "/");
+                    this.probes.removePrefix("repo:" + invalidation.owner + "/");
+                    if(shared != null) {
+                        shared.removePrefix(invalidation.owner + "/");
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Updates the client's own caches and notifies the listeners of a change
+     * @param invalidation
+     */
+    private void publish(Invalidation invalidation) {
+        evict(invalidation);
+        for(InvalidationListener listener:this.invalidationListeners) {
+            listener.onInvalidate(invalidation);
+        }
+        for(WeakReference<InvalidationListener> ref:this.weakInvalidationListeners) {
+            InvalidationListener listener = ref.get();
+            if(listener != null) {
+                listener.onInvalidate(invalidation);
+            } else {
+                this.weakInvalidationListeners.remove(ref);
+            }
+        }
+    }
+
+    /**
+     * Returns the transfer statistics of this client
+     * @return
+     */
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Returns the most recent calls that were slow or large.
+     * By default calls taking 2 seconds or more are recorded
+     * @return
+     */
+    public SlowCallLog getSlowCallLog() {
+        return this.slowCalls;
+    }
+
+    /**
+     * Returns the dispatcher used to run calls concurrently by priority.
+     * One is created with a concurrency of 4 the first time it is needed
+     * @return
+     */
+    public synchronized Dispatcher getDispatcher() {
+        if(this.dispatcher == null) {
+            this.dispatcher = new Dispatcher(4);
+        }
+        return this.dispatcher;
+    }
+
+    /**
+     * Replaces the dispatcher used to run calls concurrently.
+     * This allows several clients to share the same concurrency limits
+     * @param dispatcher
+     */
+    public synchronized void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Sets the socket factory used for https connections e.g. to trust a private certificate authority.
+     * This only applies to the default transport. Other transports are configured directly
+     * @param factory the factory or null to use the platform default
+     */
+    public void setSSLSocketFactory(SSLSocketFactory factory) {
+        if(this.transport instanceof UrlConnectionTransport) {
+            ((UrlConnectionTransport)this.transport).setSSLSocketFactory(factory);
+        }
+    }
+
+    /**
+     * Prepares connections to the servers in the background so the first real request does not pay for
+     * DNS resolution and the TCP and TLS handshakes.
+     * The host names are resolved and connections are opened and returned to the connection pool.
+     * Compare {@link Metrics#getFirstRequestLatency()} with and without warming up to see the effect.
+     * @param connections the number of connections to open to each server
+     */
+    public void warmUp(final int connections) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                List<Thread> workers = new ArrayList<>();
+                for(final Server server:servers) {
+                    for(int i = 0; i < Math.max(1, connections); i ++) {
+                        Thread worker = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                warmUp(server);
+                            }
+                        }, "gogs-warm-up");
+                        worker.setDaemon(true);
+                        worker.start();
+                        workers.add(worker);
+                    }
+                }
+                for(Thread worker:workers) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                metrics.recordWarmUp(System.currentTimeMillis() - start);
+            }
+        }, "gogs-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Opens a connection to the server and reads the response so the connection is kept alive in the pool.
+     * An empty user search is used since the server answers it successfully without touching the database
+     * @param server
+     */
+    private void warmUp(Server server) {
+        Transport.Exchange exchange = null;
+        try {
+            String url = Endpoint.SEARCH_USERS.route("", 1).toUrl(server.url);
+            // resolve the host up front. The result is cached by the platform resolver
+            InetAddress.getAllByName(new URL(url).getHost());
+            exchange = this.transport.newExchange(new Transport.Request(url, "GET",
+                    Collections.<String, String>emptyMap(), null, this.connectionTimeout, this.readTimeout));
+            int code = exchange.execute();
+            if(code >= 200 && code < 300) {
+                // the body must be fully consumed for the connection to be reused
+                InputStream is = exchange.getBody();
+                byte[] buffer = new byte[1024];
+                while(is.read(buffer) != -1) {
+                    // discard
+                }
+                is.close();
+            } else {
+                // an unread error body would hold the connection out of the pool so close it instead
+                exchange.abort();
+            }
+        } catch (IOException e) {
+            if(exchange != null) {
+                exchange.abort();
+            }
+        } finally {
+            if(exchange != null) {
+                exchange.close();
+            }
+        }
+    }
+
     /**
      * Changes the read timeout
      * @param timeout
@@ -57,82 +394,565 @@ public class GogsAPI {
         this.connectionTimeout = timeout;
     }
 
+    /**
+     * Derives the read timeout of each endpoint from its recent latency instead of using the fixed read timeout.
+     * Once an endpoint has been measured a few times its timeout becomes the 99th percentile of the time taken to
+     * receive a response plus headroom, kept within the bounds. Quick lookups then fail fast while slow listings
+     * and admin calls are given the time they usually need. Requests that time out count as taking the whole timeout
+     * so an endpoint that becomes slower is given longer.
+     * The fixed read timeout is used until there are enough measurements. Pass 0 for both bounds to turn this off
+     * @param minTimeout the shortest timeout in milliseconds
+     * @param maxTimeout the longest timeout in milliseconds
+     */
+    public void setAdaptiveTimeouts(int minTimeout, int maxTimeout) {
+        this.minAdaptiveTimeout = Math.max(0, Math.min(minTimeout, maxTimeout));
+        this.maxAdaptiveTimeout = Math.max(0, maxTimeout);
+        if(maxTimeout <= 0) {
+            this.latencies.clear();
+        }
+    }
+
+    /**
+     * Returns the read timeout currently used for an endpoint
+     * @param endpoint the endpoint as returned by {@link Response#getEndpoint()} e.g. "/user/repos"
+     * @return the timeout in milliseconds
+     */
+    public int getReadTimeout(String endpoint) {
+        int max = this.maxAdaptiveTimeout;
+        if(max <= 0) {
+            return this.readTimeout;
+        }
+        int min = this.minAdaptiveTimeout;
+        LatencyWindow window = this.latencies.get(endpoint);
+        int percentile = window != null ? window.getPercentile() : -1;
+        if(percentile == -1) {
+            return Math.max(min, Math.min(max, this.readTimeout));
+        }
+        // half again the usual worst case leaves room for ordinary variation
+        long timeout = percentile + percentile / 2 + 100;
+        return (int)Math.max(min, Math.min(max, timeout));
+    }
+
+    /**
+     * Records how long an endpoint took to respond when adaptive timeouts are on
+     * @param endpoint
+     * @param millis the time from being connected to the first byte of the response
+     */
+    private void recordLatency(Endpoint endpoint, long millis) {
+        if(this.maxAdaptiveTimeout <= 0) {
+            return;
+        }
+        LatencyWindow window = this.latencies.get(endpoint.template);
+        if(window == null) {
+            window = new LatencyWindow();
+            LatencyWindow existing = this.latencies.putIfAbsent(endpoint.template, window);
+            if(existing != null) {
+                window = existing;
+            }
+        }
+        window.record(millis);
+    }
+
+    /**
+     * Sets the maximum size of a decoded response body.
+     * Larger responses are abandoned and fail with {@link ErrorType#TOO_LARGE} so a misbehaving server cannot exhaust memory.
+     * Streamed results are limited too since the part of a page a subscriber has not asked for yet is buffered
+     * @param bytes
+     */
+    public void setMaxResponseSize(long bytes) {
+        this.maxResponseSize = bytes;
+    }
+
+    /**
+     * Sets the maximum size of a decoded response body for a single endpoint
+     * @param endpoint the endpoint as returned by {@link Response#getEndpoint()} e.g. "/user/repos"
+     * @param bytes the limit or a negative number to use the default limit again
+     */
+    public void setMaxResponseSize(String endpoint, long bytes) {
+        if(bytes < 0) {
+            this.endpointMaxResponseSizes.remove(endpoint);
+        } else {
+            this.endpointMaxResponseSizes.put(endpoint, bytes);
+        }
+    }
+
+    /**
+     * Returns the maximum size of a decoded response body from the endpoint
+     * @param endpoint
+     * @return
+     */
+    private long getMaxResponseSize(Endpoint endpoint) {
+        Long bytes = this.endpointMaxResponseSizes.get(endpoint.template);
+        return bytes != null ? bytes : this.maxResponseSize;
+    }
+
+    /**
+     * Sets when listing responses are moved out of memory.
+     * Listing bodies larger than the threshold are written to a temp file and parsed from there one item
+     * at a time instead of being decoded into a string. {@link Response#data} is null for such responses.
+     * The streaming methods such as {@link #streamRepos(User)} emit the results as they are decoded instead of collecting them
+     * @param bytes the size above which bodies are written to a file
+     * @param directory where the temp files are created. If null the system temp directory is used
+     */
+    public void setSpillThreshold(long bytes, File directory) {
+        this.spillThreshold = bytes;
+        this.spillDirectory = directory;
+    }
+
+    /**
+     * Switches users that authenticate with a password over to token authentication.
+     * The first request made by such a user finds or creates an application token with this name
+     * and every following request authenticates with that token instead.
+     * @param tokenName the name of the application token to use or null to always use basic authentication
+     */
+    public void setTokenAuthName(String tokenName) {
+        this.tokenAuthName = tokenName;
+        this.credentials.clear();
+    }
+
+    /**
+     * Discards all cached authorization headers and acquired tokens
+     */
+    public void clearCredentials() {
+        this.credentials.clear();
+    }
+
     /**
      * Performs a request against the api
-     * @param partialUrl
+     * @param route the api command
      * @param user
      * @param postData if not null the request will POST the data otherwise it will be a GET request
      * @return
      */
-    private Response request(String partialUrl, User user, String postData) {
-        return request(partialUrl, user, postData, null);
+    private Response request(Endpoint.Route route, User user, JSONBody postData) {
+        return request(route, user, postData, null);
+    }
+
+    /**
+     * Performs a request against the api
+     * @param route the api command
+     * @param user the user authenticating this request. Requires token or username and pasword
+     * @param postData if not null the request will POST the data otherwise it will be a GET request
+     * @param requestMethod if null the request method will default to POST or GET
+     * @return
+     */
+    private Response request(Endpoint.Route route, User user, JSONBody postData, String requestMethod) {
+        return request(route, user, postData, requestMethod, null);
+    }
+
+    /**
+     * Performs a request against the api
+     * @param route the api command
+     * @param user the user authenticating this request. Requires token or username and pasword
+     * @param postData if not null the request will POST the data otherwise it will be a GET request
+     * @param requestMethod if null the request method will default to POST or GET
+     * @param headers additional request headers such as conditional request validators. May be null
+     * @return
+     */
+    Response request(Endpoint.Route route, User user, JSONBody postData, String requestMethod, Map<String, String> headers) {
+        return request(route, user, postData, requestMethod, headers, null);
+    }
+
+    /**
+     * Performs a GET request and hands a successful response body to the reader as it arrives
+     * instead of buffering it into {@link Response#data}
+     * @param route the api command
+     * @param user the user authenticating this request. May be null
+     * @param reader decodes the response body
+     * @return
+     */
+    Response stream(Endpoint.Route route, User user, BodyReader reader) {
+        return request(route, user, null, null, null, reader);
+    }
+
+    private Response request(Endpoint.Route route, User user, JSONBody postData, String requestMethod, Map<String, String> headers, BodyReader reader) {
+        Response response = send(route, authorize(user), postData, requestMethod, headers, reader);
+        if(response.code == HttpURLConnection.HTTP_UNAUTHORIZED && user != null) {
+            // the credentials may have been revoked
+            this.credentials.invalidate(user);
+        }
+        return response;
+    }
+
+    /**
+     * Performs a request that bypasses token authentication switching.
+     * The token endpoints only accept the user's own credentials
+     * @param route the api command
+     * @param user the user authenticating this request. Requires token or username and pasword
+     * @param postData if not null the request will POST the data otherwise it will be a GET request
+     * @return
+     */
+    Response basicRequest(Endpoint.Route route, User user, JSONBody postData) {
+        return send(route, encodeUserAuth(user), postData, null, null, null);
+    }
+
+    /**
+     * Sends a request to the api
+     * @param route the api command
+     * @param auth the Authorization header value. May be null
+     * @param postData if not null the request will POST the data otherwise it will be a GET request
+     * @param requestMethod if null the request method will default to POST or GET
+     * @param headers additional request headers. May be null
+     * @param reader if not null a successful response body is read by it instead of into {@link Response#data}
+     * @return
+     */
+    private Response send(Endpoint.Route route, String auth, JSONBody postData, String requestMethod, Map<String, String> headers, BodyReader reader) {
+        Response response;
+        Admission admission = this.admission;
+        if(admission != null && !admission.acquire()) {
+            response = new Response(-1, null, new CancellationException("The request was cancelled while waiting to be sent"));
+        } else {
+            try {
+                if(this.servers.length == 1 || !canUseMirror(route, auth, requestMethod, postData)) {
+                    response = send(this.primary, route, auth, postData, requestMethod, headers, reader);
+                } else {
+                    response = null;
+                    for(Server server:getReadServers()) {
+                        // once a response code arrives the body may have been partly read so it is never retried
+                        response = send(server, route, auth, postData, requestMethod, headers, reader);
+                        if(response.code != -1 || response.exception instanceof CancellationException) {
+                            break;
+                        }
+                        // the server could not be reached so try the next one
+                    }
+                }
+            } finally {
+                if(admission != null) {
+                    admission.release();
+                }
+            }
+        }
+        response.endpoint = route.endpoint.template;
+        this.slowCalls.onResponse(response);
+        this.lastResponse = response;
+        this.threadResponse.set(response);
+        if(response.isError()) {
+            notifyError(response);
+        }
+        return response;
+    }
+
+    /**
+     * Records that a response could not be parsed and notifies the error listener
+     * @param response
+     * @param e
+     */
+    void parseFailed(Response response, Exception e) {
+        response.parseFailed(e);
+        notifyError(response);
+    }
+
+    /**
+     * Parses the data of a response holding an object and adds the time it took to the call
+     * @param response
+     * @return
+     * @throws JSONException
+     */
+    JSONObject parseObject(Response response) throws JSONException {
+        long start = System.nanoTime();
+        try {
+            return new JSONObject(response.data);
+        } finally {
+            this.slowCalls.onParsed(response, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    /**
+     * Parses the data of a response holding an array and adds the time it took to the call
+     * @param response
+     * @return
+     * @throws JSONException
+     */
+    JSONArray parseArray(Response response) throws JSONException {
+        long start = System.nanoTime();
+        try {
+            return new JSONArray(response.data);
+        } finally {
+            this.slowCalls.onParsed(response, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    private void notifyError(Response response) {
+        ErrorListener listener = this.errorListener;
+        if(listener != null) {
+            listener.onError(response.getError(), response);
+        }
+    }
+
+    /**
+     * Orders the servers for a read.
+     * Healthy servers come first by latency followed by the unhealthy ones in the order they will recover
+     * @return
+     */
+    private List<Server> getReadServers() {
+        List<Server> healthy = new ArrayList<>(this.servers.length);
+        List<Server> unhealthy = new ArrayList<>();
+        for(Server server:this.servers) {
+            if(server.isHealthy()) {
+                healthy.add(server);
+            } else {
+                unhealthy.add(server);
+            }
+        }
+        Collections.sort(healthy, new Comparator<Server>() {
+            @Override
+            public int compare(Server a, Server b) {
+                return Double.compare(a.getLatency(), b.getLatency());
+            }
+        });
+        Collections.sort(unhealthy, new Comparator<Server>() {
+            @Override
+            public int compare(Server a, Server b) {
+                return Long.compare(a.getDownUntil(), b.getDownUntil());
+            }
+        });
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    /**
+     * Checks if the request may be sent to a mirror.
+     * Passwords and the tokens they list or create are only ever given to the primary
+     * @param route
+     * @param auth the Authorization header value. May be null
+     * @param requestMethod
+     * @param postData
+     * @return
+     */
+    private static boolean canUseMirror(Endpoint.Route route, String auth, String requestMethod, JSONBody postData) {
+        if(!isRequestMethodIdempotent(requestMethod, postData) || route.endpoint == Endpoint.USER_TOKENS) {
+            return false;
+        }
+        return auth == null || !auth.startsWith("Basic ");
+    }
+
+    /**
+     * Checks if the request may safely be sent to any server and retried
+     * @param requestMethod
+     * @param postData
+     * @return
+     */
+    private static boolean isRequestMethodIdempotent(String requestMethod, JSONBody postData) {
+        if(requestMethod == null) {
+            return postData == null;
+        }
+        return requestMethod.equalsIgnoreCase("GET") || requestMethod.equalsIgnoreCase("HEAD");
+    }
+
+    /**
+     * Sends a request to a single server
+     * @param server the server to send the request to
+     * @param route the api command
+     * @param auth the Authorization header value. May be null
+     * @param postData if not null the request will POST the data otherwise it will be a GET request
+     * @param requestMethod if null the request method will default to POST or GET
+     * @param headers additional request headers. May be null
+     * @param reader if not null a successful response body is read by it instead of into {@link Response#data}
+     * @return
+     */
+    private Response send(Server server, Endpoint.Route route, String auth, JSONBody postData, String requestMethod, Map<String, String> headers, BodyReader reader) {
+        Cancellation cancellation = Cancellation.current();
+        if(cancellation != null && cancellation.isCancelled()) {
+            return new Response(-1, null, new CancellationException("The request was cancelled"));
+        }
+        Response.Timing timing = new Response.Timing(requestMethod);
+        if(this.slowCalls.isMeasuringAllocations()) {
+            timing.allocatedAtStart = AllocationCounter.current();
+        }
+        long start = timing.startedAt;
+        int responseCode = -1;
+        String responseData = null;
+        Map<String, List<String>> responseHeaders = null;
+        Exception exception = null;
+        Runnable abort = null;
+        Transport.Exchange exchange = null;
+        int timeout = this.readTimeout;
+        try {
+            // custom request method
+            String method = requestMethod != null ? requestMethod.toUpperCase() : (postData != null ? "POST" : "GET");
+            timing.method = method;
+            Map<String, String> requestHeaders = new LinkedHashMap<>();
+            if(auth != null) {
+                requestHeaders.put("Authorization", auth);
+            }
+            requestHeaders.put("Content-Type", "application/json");
+            // setting this ourselves disables any transparent decompression so the wire size can be measured
+            requestHeaders.put("Accept-Encoding", "gzip, deflate");
+            if(headers != null) {
+                requestHeaders.putAll(headers);
+            }
+            timeout = getReadTimeout(route.endpoint.template);
+            Transport.Request request = new Transport.Request(route.toUrl(server.url), method, requestHeaders, postData,
+                    Cancellation.limitTimeout(this.connectionTimeout), Cancellation.limitTimeout(timeout));
+            final Transport.Exchange ex = this.transport.newExchange(request);
+            exchange = ex;
+            if(cancellation != null) {
+                abort = new Runnable() {
+                    @Override
+                    public void run() {
+                        ex.abort();
+                    }
+                };
+                cancellation.addListener(abort);
+            }
+            if(postData != null) {
+                this.metrics.bytesSent.addAndGet(postData.length());
+                timing.bytesSent = postData.length();
+            }
+
+            this.metrics.requests.incrementAndGet();
+            responseCode = exchange.execute();
+            long headersAt = System.currentTimeMillis();
+            timing.firstByteMillis = headersAt - start;
+            long connectMillis = exchange instanceof Transport.TimedExchange
+                    ? ((Transport.TimedExchange)exchange).getConnectMillis() : -1;
+            // the adaptive timeout is a read timeout so time spent connecting is left out
+            recordLatency(route.endpoint, connectMillis > 0 ? timing.firstByteMillis - connectMillis : timing.firstByteMillis);
+            responseHeaders = exchange.getHeaders();
+
+            if(responseCode != HttpURLConnection.HTTP_NOT_MODIFIED && isRequestMethodReadable(method)) {
+                // read response
+                AtomicLong received = new AtomicLong();
+                InputStream is = openBody(exchange, received);
+                try {
+                    // readers may hold what they decode so their bodies are limited as well
+                    InputStream bounded = new BoundedInputStream(is, getMaxResponseSize(route.endpoint));
+                    if(reader != null && responseCode == HttpURLConnection.HTTP_OK) {
+                        responseData = reader.read(bounded);
+                    } else {
+                        responseData = readString(bounded);
+                    }
+                } finally {
+                    is.close();
+                    timing.downloadMillis = System.currentTimeMillis() - headersAt;
+                    timing.bytesReceived = received.get();
+                }
+            }
+        } catch (Exception e) {
+            exception = e;
+        } finally {
+            if(abort != null) {
+                cancellation.removeListener(abort);
+            }
+            if(exchange != null) {
+                if(exchange instanceof Transport.TimedExchange) {
+                    timing.connectMillis = ((Transport.TimedExchange)exchange).getConnectMillis();
+                }
+                exchange.close();
+            }
+        }
+        if(responseCode == -1) {
+            // nothing arrived so all of the time was spent waiting
+            timing.firstByteMillis = System.currentTimeMillis() - start;
+        }
+        if(exception != null && cancellation != null && cancellation.isCancelled()) {
+            // the failure was caused by the cancellation and says nothing about the server
+            CancellationException cancelled = new CancellationException("The request was cancelled");
+            cancelled.initCause(exception);
+            Response response = new Response(-1, null, cancelled, responseHeaders);
+            response.timing = timing;
+            return response;
+        }
+        if(responseCode == -1 && exception instanceof SocketTimeoutException) {
+            // the real latency is unknown but at least as long as the timeout
+            recordLatency(route.endpoint, timeout);
+        }
+        if(responseCode != -1) {
+            this.metrics.recordFirstRequest(start, System.currentTimeMillis() - start);
+            server.recordSuccess(System.currentTimeMillis() - start);
+        } else if(exception instanceof IOException) {
+            server.recordFailure();
+        }
+        Response response = new Response(responseCode, responseData, exception, responseHeaders);
+        response.timing = timing;
+        return response;
+    }
+
+    /**
+     * Opens the response body, decompressing it if the server compressed it
+     * @param exchange
+     * @param received counts the bytes of this response as they arrive over the wire
+     * @return the decoded body
+     * @throws IOException
+     */
+    private InputStream openBody(Transport.Exchange exchange, AtomicLong received) throws IOException {
+        InputStream is = new CountingInputStream(new CountingInputStream(exchange.getBody(), this.metrics.bytesReceived), received);
+        String encoding = Response.findHeader(exchange.getHeaders(), "Content-Encoding");
+        if(encoding != null) {
+            if(encoding.equalsIgnoreCase("gzip")) {
+                this.metrics.compressedResponses.incrementAndGet();
+                is = new GZIPInputStream(is, 8192);
+            } else if(encoding.equalsIgnoreCase("deflate")) {
+                this.metrics.compressedResponses.incrementAndGet();
+                is = new InflaterInputStream(is);
+            }
+        }
+        return new CountingInputStream(is, this.metrics.bytesDecoded);
+    }
+
+    /**
+     * Decodes a UTF-8 stream into a string
+     * @param is
+     * @return
+     * @throws IOException
+     */
+    private static String readString(InputStream is) throws IOException {
+        InputStreamReader reader = new InputStreamReader(is, "UTF-8");
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while((read = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
     }
 
     /**
-     * Performs a request against the api
-     * @param partialUrl the api command
-     * @param user the user authenticating this request. Requires token or username and pasword
-     * @param postData if not null the request will POST the data otherwise it will be a GET request
-     * @param requestMethod if null the request method will default to POST or GET
+     * Performs a GET request for a listing and decodes its items.
+     * Large bodies are spilled to a temp file and decoded from there one item at a time
+     * @param route the api command
+     * @param user the user authenticating this request. May be null
+     * @param arrayField the field holding the items or null if the response is the array itself
+     * @param decoder converts each item to a model
      * @return
      */
-    private Response request(String partialUrl, User user, String postData, String requestMethod) {
-        int responseCode = -1;
-        String responseData = null;
-        Exception exception = null;
+    private <T> List<T> requestList(Endpoint.Route route, User user, String arrayField, StreamPublisher.Decoder<T> decoder) {
+        List<T> items = new ArrayList<>();
+        SpillBuffer buffer = new SpillBuffer(this.spillThreshold, this.spillDirectory, getMaxResponseSize(route.endpoint));
         try {
-            URL url = new URL(this.baseUrl + partialUrl.replaceAll("^/+", ""));
-            HttpURLConnection conn;
-            if(url.getProtocol().equals("https")) {
-                conn = (HttpsURLConnection)url.openConnection();
-            } else {
-                conn = (HttpURLConnection)url.openConnection();
-            }
-            if(user != null) {
-                String auth = encodeUserAuth(user);
-                if(auth != null) {
-                    conn.addRequestProperty("Authorization", auth);
-                }
-            }
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setReadTimeout(this.readTimeout);
-            conn.setConnectTimeout(this.connectionTimeout);
-
-            // custom request method
-            if(requestMethod != null) {
-                conn.setRequestMethod(requestMethod.toUpperCase());
-            }
-
-            if(postData != null) {
-                // post
-                if(requestMethod == null) {
-                    conn.setRequestMethod("POST");
-                }
-                conn.setDoOutput(true);
-                DataOutputStream dos = new DataOutputStream(conn.getOutputStream());
-                dos.writeBytes(postData);
-                dos.flush();
-                dos.close();
-            }
-
-            responseCode = conn.getResponseCode();
-
-            if(isRequestMethodReadable(conn.getRequestMethod())) {
-                // read response
-                InputStream is = conn.getInputStream();
-                BufferedInputStream bis = new BufferedInputStream(is);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                int current;
-                while ((current = bis.read()) != -1) {
-                    baos.write((byte) current);
+            Response response = stream(route, user, buffer);
+            if(response.code == 200 && response.exception == null && buffer.hasBody()) {
+                long start = System.nanoTime();
+                JsonReader reader = null;
+                try {
+                    reader = new JsonReader(buffer.openReader());
+                    if(StreamPublisher.seekItems(reader, arrayField)) {
+                        reader.beginArray();
+                        while(reader.hasNext()) {
+                            T item = decoder.decode(StreamPublisher.readObject(reader));
+                            if(item != null) {
+                                items.add(item);
+                            }
+                        }
+                        reader.endArray();
+                    }
+                } catch (IOException | IllegalStateException | JSONException | NumberFormatException e) {
+                    parseFailed(response, e);
+                } finally {
+                    if(reader != null) {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            // nothing left to read
+                        }
+                    }
+                    this.slowCalls.onParsed(response, (System.nanoTime() - start) / 1000000);
                 }
-                responseData = baos.toString("UTF-8");
             }
-        } catch (Exception e) {
-            exception = e;
+        } finally {
+            buffer.delete();
         }
-        this.lastResponse = new Response(responseCode, responseData, exception);
-        return this.lastResponse;
+        return items;
     }
 
     /**
@@ -144,12 +964,106 @@ public class GogsAPI {
         switch(method.toUpperCase()) {
             case "DELETE":
             case "PUT":
+            case "HEAD":
                 return false;
             default:
                 return true;
         }
     }
 
+    /**
+     * Returns the Authorization header for the user.
+     * The header is cached until the user's credentials change
+     * @param user
+     * @return
+     */
+    private String authorize(User user) {
+        if(user == null) {
+            return null;
+        }
+        String auth = this.credentials.get(user);
+        if(auth == null) {
+            auth = encodeUserAuth(user);
+            String tokenName = this.tokenAuthName;
+            if(auth != null && tokenName != null && user.token == null) {
+                Token token = acquireToken(user, auth, tokenName);
+                if(token != null) {
+                    auth = "token " + token;
+                }
+            }
+            if(auth != null) {
+                this.credentials.put(user, auth);
+            }
+        }
+        return auth;
+    }
+
+    /**
+     * Finds or creates the named application token for a user authenticating with a password
+     * @param user
+     * @param basicAuth the user's basic Authorization header
+     * @param tokenName
+     * @return the token or null if one could not be obtained
+     */
+    private Token acquireToken(final User user, final String basicAuth, final String tokenName) {
+        // threads starting at once with the same credentials share one request so duplicate tokens are not
+        // created, while requests for other users go ahead without waiting on it
+        FutureTask<Token> task = new FutureTask<>(new Callable<Token>() {
+            @Override
+            public Token call() {
+                return requestToken(user, basicAuth, tokenName);
+            }
+        });
+        FutureTask<Token> pending = this.tokenRequests.putIfAbsent(basicAuth, task);
+        if(pending == null) {
+            try {
+                task.run();
+            } finally {
+                this.tokenRequests.remove(basicAuth, task);
+            }
+            pending = task;
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the request failed in a way that was not reported as a response
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the named application token and creates it if it does not exist
+     * @param user
+     * @param basicAuth the user's basic Authorization header
+     * @param tokenName
+     * @return the token or null if one could not be obtained
+     */
+    private Token requestToken(User user, String basicAuth, String tokenName) {
+        Endpoint.Route route = Endpoint.USER_TOKENS.route(user.getUsername());
+        Response response = send(route, basicAuth, null, null, null, null);
+        try {
+            if(response.code == 200 && response.data != null) {
+                JSONArray data = parseArray(response);
+                for(int i = 0; i < data.length(); i ++) {
+                    Token token = Token.fromJSON(data.getJSONObject(i));
+                    if(token != null && tokenName.equals(token.getName())
+                            && token.toString() != null && !token.toString().isEmpty()) {
+                        return token;
+                    }
+                }
+            }
+            response = send(route, basicAuth, new JSONBody().put("name", tokenName), null, null, null);
+            if(response.code == 201 && response.data != null) {
+                return Token.fromJSON(parseObject(response));
+            }
+        } catch (JSONException e) {
+            parseFailed(response, e);
+        }
+        return null;
+    }
+
     /**
      * Generates the authentication parameter for the user
      * Preference will be given to the token if it exists
@@ -166,7 +1080,8 @@ public class GogsAPI {
                 try {
                     return "Basic " + Base64.encodeToString(credentials.getBytes("UTF-8"), Base64.NO_WRAP);
                 } catch (UnsupportedEncodingException e) {
-                    e.printStackTrace();
+                    // every platform is required to support UTF-8
+                    throw new IllegalStateException(e);
                 }
             }
         }
@@ -182,21 +1097,23 @@ public class GogsAPI {
      */
     public User createUser(User user, User authUser, boolean notify) {
         if(user != null) {
-            JSONObject json = new JSONObject();
-            try {
-                json.put("username", user.getUsername());
-                json.put("email", user.email);
-                json.put("password", user.getPassword());
-                json.put("send_notify", notify);
-                if(user.fullName != null) {
-                    json.put("full_name", user.fullName);
-                }
-                Response response = request("/admin/users", authUser, json.toString());
-                if(response.code == 201 && response.data != null) {
-                    return User.fromJSON(new JSONObject(response.data));
+            JSONBody body = new JSONBody()
+                    .put("username", user.getUsername())
+                    .put("email", user.email)
+                    .put("password", user.getPassword())
+                    .put("send_notify", notify)
+                    .put("full_name", user.fullName);
+            Response response = request(Endpoint.ADMIN_USERS.route(), authUser, body);
+            if(response.code == 201 && response.data != null) {
+                User createdUser = null;
+                try {
+                    createdUser = User.fromJSON(parseObject(response));
+                } catch (JSONException e) {
+                    parseFailed(response, e);
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                publish(new Invalidation(Invalidation.Resource.USER, Invalidation.Action.CREATED,
+                        user.getUsername(), user.getUsername(), createdUser != null ? createdUser.getId() : 0, createdUser));
+                return createdUser;
             }
         }
         return null;
@@ -210,13 +1127,17 @@ public class GogsAPI {
      */
     public User editUser(User user, User authUser) {
         if(user != null) {
-            try {
-                Response response = request("/admin/users/" + user.getUsername(), authUser, user.toJSON().toString(), "PATCH");
-                if(response.code == 200 && response.data != null) {
-                    return User.fromJSON(new JSONObject(response.data));
+            Response response = request(Endpoint.ADMIN_USER.route(user.getUsername()), authUser, user.toJSONBody(), "PATCH");
+            if(response.code == 200 && response.data != null) {
+                User editedUser = null;
+                try {
+                    editedUser = User.fromJSON(parseObject(response));
+                } catch (JSONException e) {
+                    parseFailed(response, e);
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                publish(new Invalidation(Invalidation.Resource.USER, Invalidation.Action.UPDATED,
+                        user.getUsername(), user.getUsername(), editedUser != null ? editedUser.getId() : user.getId(), editedUser));
+                return editedUser;
             }
         }
         return null;
@@ -230,8 +1151,10 @@ public class GogsAPI {
      */
     public boolean deleteUser(User user, User authUser) {
         if(user != null && authUser != null && !user.getUsername().equals(authUser.getUsername())) {
-            Response response = request(String.format("/admin/users/%s", user.getUsername()), authUser, null, "DELETE");
+            Response response = request(Endpoint.ADMIN_USER.route(user.getUsername()), authUser, null, "DELETE");
             if(response.code == 204) {
+                publish(new Invalidation(Invalidation.Resource.USER, Invalidation.Action.DELETED,
+                        user.getUsername(), user.getUsername(), user.getId(), null));
                 return true;
             }
         }
@@ -248,27 +1171,57 @@ public class GogsAPI {
     public List<User> searchUsers(String query, int limit, User authUser) {
         List<User> users = new ArrayList<>();
         if(query != null && !query.trim().isEmpty()) {
-            Response response = request(String.format("/users/search?q=%s&limit=%d", query, limit), authUser, null);
-            if(response.code == 200 && response.data != null) {
-                try {
-                    JSONObject json = new JSONObject(response.data);
-                    if(json.has("ok") && json.getBoolean("ok")) {
-                        JSONArray data = json.getJSONArray("data");
-                        for (int i = 0; i < data.length(); i++) {
-                            User u = User.fromJSON(data.getJSONObject(i));
-                            if (u != null) {
-                                users.add(u);
-                            }
-                        }
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
+            users = requestList(Endpoint.SEARCH_USERS.route(query, limit), authUser, "data", new StreamPublisher.Decoder<User>() {
+                @Override
+                public User decode(JSONObject json) {
+                    return User.fromJSON(json);
                 }
-            }
+            });
         }
         return users;
     }
 
+    /**
+     * Searches for users and returns them as the server sent them
+     * @param query
+     * @param limit the maximum number of results to return
+     * @param authUser the user authenticating the request. May be null
+     * @return the json objects of the users
+     */
+    List<JSONObject> searchUsersJSON(String query, int limit, User authUser) {
+        if(query == null || query.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return requestList(Endpoint.SEARCH_USERS.route(query, limit), authUser, "data", new StreamPublisher.Decoder<JSONObject>() {
+            @Override
+            public JSONObject decode(JSONObject json) {
+                return json;
+            }
+        });
+    }
+
+    /**
+     * Publishes the users that match the query as they are received
+     * @param query the username to search for
+     * @param limit the maximum number of results to return
+     * @param authUser user to authenticate as. If null the email fields will be empty in the result
+     * @return a publisher that runs a new search for each subscriber
+     */
+    public Publisher<User> streamSearchUsers(final String query, final int limit, User authUser) {
+        final String q = query != null ? query : "";
+        return new StreamPublisher<>(this, authUser, new StreamPublisher.Pages() {
+            @Override
+            public Endpoint.Route route(int page) {
+                return Endpoint.SEARCH_USERS.route(q, limit);
+            }
+        }, 0, "data", new StreamPublisher.Decoder<User>() {
+            @Override
+            public User decode(JSONObject json) {
+                return User.fromJSON(json);
+            }
+        });
+    }
+
     /**
      * Retrieves a user
      * @param user the user to retrieve. Requires username
@@ -277,13 +1230,27 @@ public class GogsAPI {
      */
     public User getUser(User user, User authUser) {
         if(user != null) {
-            Response response = request(String.format("/users/%s", user.getUsername()), authUser, null);
-            if(response.code == 200 && response.data != null) {
-                try {
-                    return User.fromJSON(new JSONObject(response.data));
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
+            JSONObject json = getUserJSON(user.getUsername(), authUser);
+            if(json != null) {
+                return User.fromJSON(json);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves a user as the server sent it
+     * @param username
+     * @param authUser the user to authenticate as. May be null
+     * @return the json object of the user or null if it could not be retrieved
+     */
+    JSONObject getUserJSON(String username, User authUser) {
+        Response response = request(Endpoint.USER.route(username), authUser, null);
+        if(response.code == 200 && response.data != null) {
+            try {
+                return parseObject(response);
+            } catch (JSONException e) {
+                parseFailed(response, e);
             }
         }
         return null;
@@ -299,27 +1266,29 @@ public class GogsAPI {
     public List<Repository> searchRepos(String query, int uid, int limit) {
         List<Repository> repos = new ArrayList<>();
         if(query != null && !query.trim().isEmpty()) {
-            Response response = request(String.format("/repos/search?q=%s&uid=%d&limit=%d", query.trim(), uid, limit), null, null);
-            if(response.code == 200 && response.data != null) {
-                try {
-                    JSONObject json = new JSONObject(response.data);
-                    if(json.has("ok") && json.getBoolean("ok")) {
-                        JSONArray data = json.getJSONArray("data");
-                        for (int i = 0; i < data.length(); i++) {
-                            Repository repo = Repository.fromJSON(data.getJSONObject(i));
-                            if (repo != null) {
-                                repos.add(repo);
-                            }
-                        }
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
+            repos = requestList(Endpoint.SEARCH_REPOS.route(query.trim(), uid, limit), null, "data", REPOSITORY_DECODER);
         }
         return repos;
     }
 
+    /**
+     * Publishes the public repositories that match the query as they are received.
+     * Further pages are requested while the subscriber wants more results
+     * @param query the repository name
+     * @param uid the id of the user whose repositories will be searched. 0 will search all
+     * @param pageSize the number of repositories to request at a time
+     * @return a publisher that runs a new search for each subscriber
+     */
+    public Publisher<Repository> streamSearchRepos(final String query, final int uid, final int pageSize) {
+        final String q = query != null ? query.trim() : "";
+        return new StreamPublisher<>(this, null, new StreamPublisher.Pages() {
+            @Override
+            public Endpoint.Route route(int page) {
+                return Endpoint.SEARCH_REPOS_PAGE.route(q, uid, pageSize, page);
+            }
+        }, Math.max(1, pageSize), "data", REPOSITORY_DECODER);
+    }
+
     /**
      * Creates a new repository for the user
      * @param repo the repository being created. Requires name, description, private
@@ -328,17 +1297,17 @@ public class GogsAPI {
      */
     public Repository createRepo(Repository repo, User user) {
         if(repo != null && user != null) {
-            JSONObject json = new JSONObject();
-            try {
-                json.put("name", repo.getName());
-                json.put("description", repo.getDescription());
-                json.put("private", repo.getIsPrivate());
-                Response response = request("/user/repos", user, json.toString());
-                if(response.code == 201 && response.data != null) {
-                    return Repository.fromJSON(new JSONObject(response.data));
+            Response response = request(Endpoint.USER_REPOS.route(), user, repo.toJSONBody());
+            if(response.code == 201 && response.data != null) {
+                Repository createdRepo = null;
+                try {
+                    createdRepo = Repository.fromJSON(parseObject(response));
+                } catch (JSONException e) {
+                    parseFailed(response, e);
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                publish(new Invalidation(Invalidation.Resource.REPOSITORY, Invalidation.Action.CREATED,
+                        user.getUsername(), repo.getName(), createdRepo != null ? createdRepo.getId() : 0, createdRepo));
+                return createdRepo;
             }
         }
         return null;
@@ -352,18 +1321,251 @@ public class GogsAPI {
      */
     public Repository getRepo(Repository repo, User authUser) {
         if(repo != null) {
-            Response response = request("/repos/" + repo.getFullName(), authUser, null);
-            if(response.code == 200 && response.data != null) {
-                try {
-                    return Repository.fromJSON(new JSONObject(response.data));
-                } catch (JSONException e) {
-                    e.printStackTrace();
+            return fetchRepo(repo.getFullName(), authUser, false);
+        }
+        return null;
+    }
+
+    /**
+     * Returns several repositories at once.
+     * Duplicate repositories are only requested once, the requests run concurrently on the dispatcher,
+     * recently fetched repositories are reused and older ones are revalidated with a conditional request
+     * @param repos the repositories to retrieve. Requires full name
+     * @param authUser the user to authenticate as. This does not have to be the owner of the repositories
+     * @return the repositories keyed by full name. The value is null if a repository could not be retrieved
+     */
+    public Map<String, Repository> getRepos(Collection<Repository> repos, final User authUser) {
+        Map<String, Future<Repository>> futures = new LinkedHashMap<>();
+        for(Repository repo:repos) {
+            if(repo == null || repo.getFullName() == null || futures.containsKey(repo.getFullName())) {
+                continue;
+            }
+            final String fullName = repo.getFullName();
+            futures.put(fullName, getDispatcher().submit(Dispatcher.Priority.NORMAL, new Callable<Repository>() {
+                @Override
+                public Repository call() {
+                    return fetchRepo(fullName, authUser, true);
+                }
+            }));
+        }
+        Map<String, Repository> results = new LinkedHashMap<>();
+        for(Map.Entry<String, Future<Repository>> entry:futures.entrySet()) {
+            Repository repo = null;
+            try {
+                repo = entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // leave the result empty
+            }
+            results.put(entry.getKey(), repo);
+        }
+        return results;
+    }
+
+    /**
+     * Changes how long fetched repositories are reused by {@link #getRepos(Collection, User)}
+     * before they are revalidated
+     * @param ttl the number of milliseconds. 0 always revalidates
+     */
+    public void setRepoCacheTtl(long ttl) {
+        this.repoCache.setTtl(ttl);
+    }
+
+    /**
+     * Retrieves a repository, revalidating any cached copy with a conditional request
+     * @param fullName
+     * @param authUser
+     * @param allowCached if true a recently fetched copy is returned without contacting the server
+     * @return
+     */
+    private Repository fetchRepo(String fullName, User authUser, boolean allowCached) {
+        String key = fullName + "@" + (authUser != null ? authUser.getUsername() : "");
+        String publicKey = fullName + "@";
+        ExpiringCache<CachedRepo> shared = this.publicRepoCache;
+        if(allowCached) {
+            CachedRepo cached = this.repoCache.get(key);
+            if(cached == null && shared != null) {
+                cached = shared.get(publicKey);
+            }
+            if(cached != null) {
+                return cached.repo;
+            }
+        }
+        CachedRepo stale = this.repoCache.getStale(key);
+        if(stale == null && shared != null) {
+            stale = shared.getStale(publicKey);
+        }
+        Map<String, String> headers = null;
+        if(stale != null && stale.etag != null) {
+            headers = Collections.singletonMap("If-None-Match", stale.etag);
+        }
+        Response response = request(Endpoint.REPO.route(fullName), authUser, null, null, headers);
+        if(response.code == HttpURLConnection.HTTP_NOT_MODIFIED && stale != null) {
+            this.repoCache.put(key, stale);
+            return stale.repo;
+        }
+        if(response.code == 200 && response.data != null) {
+            try {
+                Repository repo = Repository.fromJSON(parseObject(response));
+                CachedRepo cached = new CachedRepo(repo, response.getHeader("ETag"));
+                this.repoCache.put(key, cached);
+                if(shared != null && repo != null && !repo.getIsPrivate()) {
+                    // anyone may see a public repository so other accounts can reuse it
+                    shared.put(publicKey, cached);
                 }
+                return repo;
+            } catch (JSONException e) {
+                parseFailed(response, e);
             }
+        } else if(response.code == HttpURLConnection.HTTP_NOT_FOUND) {
+            this.repoCache.remove(key);
         }
         return null;
     }
 
+    /**
+     * Checks if a repository exists without downloading or parsing it.
+     * Results are cached for a short time, see {@link #setProbeTtl(long)}
+     * @param repo the repository to check. Requires full name
+     * @param authUser the user to authenticate as. Private repositories only exist for users that can see them. May be null
+     * @return true if the repository exists and is visible to the user. False if the full name is not "owner/name"
+     */
+    public boolean repoExists(Repository repo, User authUser) {
+        if(repo != null && isFullName(repo.getFullName())) {
+            Boolean exists = probe(Endpoint.REPO.route(repo.getFullName()), "repo:" + repo.getFullName(), authUser);
+            return exists != null && exists;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a repository full name has the form "owner/name"
+     * so a probe cannot end up at a different endpoint such as "/repos/"
+     * @param fullName
+     * @return
+     */
+    private static boolean isFullName(String fullName) {
+        if(fullName == null) {
+            return false;
+        }
+        int slash = fullName.indexOf('/');
+        return slash > 0 && slash < fullName.length() - 1 && fullName.indexOf('/', slash + 1) == -1;
+    }
+
+    /**
+     * Checks if several repositories exist. The checks run concurrently on the dispatcher.
+     * Repositories without a full name of the form "owner/name" are left out
+     * @param repos the repositories to check. Requires full name
+     * @param authUser the user to authenticate as. May be null
+     * @return whether each repository exists keyed by full name. The value is null if it could not be determined
+     */
+    public Map<String, Boolean> reposExist(Collection<Repository> repos, User authUser) {
+        Map<String, Endpoint.Route> routes = new LinkedHashMap<>();
+        for(Repository repo:repos) {
+            if(repo != null && isFullName(repo.getFullName())) {
+                routes.put(repo.getFullName(), Endpoint.REPO.route(repo.getFullName()));
+            }
+        }
+        return probeAll(routes, "repo:", authUser);
+    }
+
+    /**
+     * Checks if a user exists without downloading or parsing it.
+     * Results are cached for a short time, see {@link #setProbeTtl(long)}
+     * @param user the user to check. Requires username
+     * @param authUser the user to authenticate as. May be null
+     * @return true if the user exists
+     */
+    public boolean userExists(User user, User authUser) {
+        if(user != null && user.getUsername() != null && !user.getUsername().isEmpty()) {
+            Boolean exists = probe(Endpoint.USER.route(user.getUsername()), "user:" + user.getUsername(), authUser);
+            return exists != null && exists;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if several users exist. The checks run concurrently on the dispatcher
+     * @param users the users to check. Requires username
+     * @param authUser the user to authenticate as. May be null
+     * @return whether each user exists keyed by username. The value is null if it could not be determined
+     */
+    public Map<String, Boolean> usersExist(Collection<User> users, User authUser) {
+        Map<String, Endpoint.Route> routes = new LinkedHashMap<>();
+        for(User user:users) {
+            if(user != null && user.getUsername() != null && !user.getUsername().isEmpty()) {
+                routes.put(user.getUsername(), Endpoint.USER.route(user.getUsername()));
+            }
+        }
+        return probeAll(routes, "user:", authUser);
+    }
+
+    /**
+     * Changes how long the results of existence checks are cached
+     * @param ttl the number of milliseconds. 0 disables the cache
+     */
+    public void setProbeTtl(long ttl) {
+        this.probes.setTtl(ttl);
+    }
+
+    /**
+     * Issues a HEAD request to check if a resource exists
+     * @param route the resource
+     * @param key identifies the resource in the cache
+     * @param authUser
+     * @return true or false if the resource was found or not found, and null if it could not be determined
+     */
+    private Boolean probe(Endpoint.Route route, String key, User authUser) {
+        String cacheKey = key + "@" + (authUser != null ? authUser.getUsername() : "");
+        Boolean exists = this.probes.get(cacheKey);
+        if(exists != null) {
+            return exists;
+        }
+        Response response = request(route, authUser, null, "HEAD");
+        if(response.code == HttpURLConnection.HTTP_OK) {
+            exists = true;
+        } else if(response.code == HttpURLConnection.HTTP_NOT_FOUND) {
+            exists = false;
+        }
+        if(exists != null) {
+            this.probes.put(cacheKey, exists);
+        }
+        return exists;
+    }
+
+    /**
+     * Probes several resources concurrently
+     * @param routes the resources keyed by name
+     * @param kind the cache key prefix of the resources
+     * @param authUser
+     * @return
+     */
+    private Map<String, Boolean> probeAll(Map<String, Endpoint.Route> routes, final String kind, final User authUser) {
+        Map<String, Future<Boolean>> futures = new LinkedHashMap<>();
+        for(final Map.Entry<String, Endpoint.Route> entry:routes.entrySet()) {
+            futures.put(entry.getKey(), getDispatcher().submit(Dispatcher.Priority.NORMAL, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return probe(entry.getValue(), kind + entry.getKey(), authUser);
+                }
+            }));
+        }
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        for(Map.Entry<String, Future<Boolean>> entry:futures.entrySet()) {
+            Boolean exists = null;
+            try {
+                exists = entry.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // leave the result undetermined
+            }
+            results.put(entry.getKey(), exists);
+        }
+        return results;
+    }
+
     /**
      * Lists all repositories that are accessible to the user
      * @param user the user who's repositories will be listed. Requires token or username and password
@@ -372,24 +1574,25 @@ public class GogsAPI {
     public List<Repository> listRepos(User user) {
         List<Repository> repos = new ArrayList<>();
         if(user != null) {
-            Response response = request("/user/repos", user, null);
-            if(response.code == 200 && response.data != null) {
-                try {
-                    JSONArray data = new JSONArray(response.data);
-                    for(int i = 0; i < data.length(); i ++) {
-                        Repository repo = Repository.fromJSON(data.getJSONObject(i));
-                        if(repo != null) {
-                            repos.add(repo);
-                        }
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
+            repos = requestList(Endpoint.USER_REPOS.route(), user, null, REPOSITORY_DECODER);
         }
         return repos;
     }
 
+    /**
+     * Publishes the repositories accessible to the user as they are received
+     * @param user the user who's repositories will be listed. Requires token or username and password
+     * @return a publisher that lists the repositories again for each subscriber
+     */
+    public Publisher<Repository> streamRepos(User user) {
+        return new StreamPublisher<>(this, user, new StreamPublisher.Pages() {
+            @Override
+            public Endpoint.Route route(int page) {
+                return Endpoint.USER_REPOS.route();
+            }
+        }, 0, null, REPOSITORY_DECODER);
+    }
+
     /**
      * Deletes a repository from the user
      * @param repo the repository to delete. Requires name
@@ -398,8 +1601,10 @@ public class GogsAPI {
      */
     public boolean deleteRepo(Repository repo, User user) {
         if(repo != null && user != null) {
-            Response response = request(String.format("/repos/%s/%s", user.getUsername(), repo.getName()), user, null, "DELETE");
+            Response response = request(Endpoint.OWNER_REPO.route(user.getUsername(), repo.getName()), user, null, "DELETE");
             if(response.code == 204) {
+                publish(new Invalidation(Invalidation.Resource.REPOSITORY, Invalidation.Action.DELETED,
+                        user.getUsername(), repo.getName(), repo.getId(), null));
                 return true;
             }
         }
@@ -414,16 +1619,17 @@ public class GogsAPI {
      */
     public Token createToken(Token token, User user) {
         if(token != null && user != null) {
-            JSONObject json = new JSONObject();
-            try {
-                json.put("name", token.getName());
-                json.put("scopes", Util.getJSONFromArray(token.getScopes()));
-                Response response = request(String.format("/users/%s/tokens", user.getUsername()), user, json.toString());
-                if(response.code == 201 && response.data != null) {
-                    return Token.fromJSON(new JSONObject(response.data));
+            Response response = basicRequest(Endpoint.USER_TOKENS.route(user.getUsername()), user, token.toJSONBody());
+            if(response.code == 201 && response.data != null) {
+                Token createdToken = null;
+                try {
+                    createdToken = Token.fromJSON(parseObject(response));
+                } catch (JSONException e) {
+                    parseFailed(response, e);
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                publish(new Invalidation(Invalidation.Resource.TOKEN, Invalidation.Action.CREATED,
+                        user.getUsername(), token.getName(), 0, createdToken));
+                return createdToken;
             }
         }
         return null;
@@ -437,10 +1643,10 @@ public class GogsAPI {
     public List<Token> listTokens(User user) {
         List<Token> tokens = new ArrayList<>();
         if(user != null) {
-            Response response = request(String.format("/users/%s/tokens", user.getUsername()), user, null);
+            Response response = basicRequest(Endpoint.USER_TOKENS.route(user.getUsername()), user, null);
             if(response.code == 200 && response.data != null) {
                 try {
-                    JSONArray data = new JSONArray(response.data);
+                    JSONArray data = parseArray(response);
                     for(int i = 0; i < data.length(); i ++) {
                         Token token = Token.fromJSON(data.getJSONObject(i));
                         if(token != null) {
@@ -448,7 +1654,7 @@ public class GogsAPI {
                         }
                     }
                 } catch (JSONException e) {
-                    e.printStackTrace();
+                    parseFailed(response, e);
                 }
             }
         }
@@ -463,16 +1669,17 @@ public class GogsAPI {
      */
     public PublicKey createPublicKey(PublicKey key, User user) {
         if(key != null && user != null) {
-            JSONObject json = new JSONObject();
-            try {
-                json.put("title", key.getTitle());
-                json.put("key", key.getKey());
-                Response response = request("/user/keys", user, json.toString());
-                if (response.code == 201 && response.data != null) {
-                    return PublicKey.fromJSON(new JSONObject(response.data));
+            Response response = request(Endpoint.CURRENT_USER_KEYS.route(), user, key.toJSONBody());
+            if (response.code == 201 && response.data != null) {
+                PublicKey createdKey = null;
+                try {
+                    createdKey = PublicKey.fromJSON(parseObject(response));
+                } catch (JSONException e) {
+                    parseFailed(response, e);
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                publish(new Invalidation(Invalidation.Resource.PUBLIC_KEY, Invalidation.Action.CREATED,
+                        user.getUsername(), key.getTitle(), createdKey != null ? createdKey.getId() : 0, createdKey));
+                return createdKey;
             }
         }
         return null;
@@ -486,10 +1693,10 @@ public class GogsAPI {
     public List<PublicKey> listPublicKeys(User user) {
         List<PublicKey> keys = new ArrayList<>();
         if(user != null) {
-            Response response = request(String.format("/users/%s/keys", user.getUsername()), user, null);
+            Response response = request(Endpoint.USER_KEYS.route(user.getUsername()), user, null);
             if(response.code == 200 && response.data != null) {
                 try {
-                    JSONArray data = new JSONArray(response.data);
+                    JSONArray data = parseArray(response);
                     for(int i = 0; i < data.length(); i ++) {
                         PublicKey key = PublicKey.fromJSON(data.getJSONObject(i));
                         if(key != null) {
@@ -497,7 +1704,7 @@ public class GogsAPI {
                         }
                     }
                 } catch (JSONException e) {
-                    e.printStackTrace();
+                    parseFailed(response, e);
                 }
             }
         }
@@ -512,12 +1719,12 @@ public class GogsAPI {
      */
     public PublicKey getPublicKey(PublicKey key, User user) {
         if(key != null && user != null) {
-            Response response = request(String.format("/user/keys/%d", key.getId()), user, null);
+            Response response = request(Endpoint.CURRENT_USER_KEY.route(key.getId()), user, null);
             if(response.code == 200 && response.data != null) {
                 try {
-                    return PublicKey.fromJSON(new JSONObject(response.data));
+                    return PublicKey.fromJSON(parseObject(response));
                 } catch (JSONException e) {
-                    e.printStackTrace();
+                    parseFailed(response, e);
                 }
             }
         }
@@ -532,11 +1739,77 @@ public class GogsAPI {
      */
     public boolean deletePublicKey(PublicKey key, User user) {
         if(key != null && user != null) {
-            Response response = request(String.format("/user/keys/%s", key.getId()), user, null, "DELETE");
+            Response response = request(Endpoint.CURRENT_USER_KEY.route(key.getId()), user, null, "DELETE");
             if(response.code == 204) {
+                publish(new Invalidation(Invalidation.Resource.PUBLIC_KEY, Invalidation.Action.DELETED,
+                        user.getUsername(), key.getTitle(), key.getId(), null));
                 return true;
             }
         }
         return false;
     }
+
+    /**
+     * A repository along with the validator needed to revalidate it
+     */
+    static class CachedRepo {
+        final Repository repo;
+        final String etag;
+
+        CachedRepo(Repository repo, String etag) {
+            this.repo = repo;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Decides when a request may be sent
+     */
+    interface Admission {
+        /**
+         * Waits until the request may be sent
+         * @return false if the request should not be sent because the call was cancelled while waiting
+         */
+        boolean acquire();
+
+        /**
+         * Called once a request admitted by {@link #acquire()} has finished
+         */
+        void release();
+    }
+
+    /**
+     * Consumes a response body as it is received
+     */
+    interface BodyReader {
+        /**
+         * @param body the decoded response body
+         * @return the body to keep in {@link Response#data} or null if it was consumed
+         * @throws IOException
+         */
+        String read(InputStream body) throws IOException;
+    }
+
+    /**
+     * Receives the changes made to the server by this client
+     */
+    public interface InvalidationListener {
+        /**
+         * Called on the thread that made the change once the server has accepted it
+         * @param invalidation
+         */
+        void onInvalidate(Invalidation invalidation);
+    }
+
+    /**
+     * Receives the errors of failed calls
+     */
+    public interface ErrorListener {
+        /**
+         * Called on the thread that made the call
+         * @param error why the call failed
+         * @param response the failed response. {@link Response#getEndpoint()} identifies the call
+         */
+        void onError(ErrorType error, Response response);
+    }
 }
@@ -0,0 +1,67 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * Describes a change made to the server by this client so cached copies can be updated
+ */
+public class Invalidation {
+
+    public enum Resource {
+        USER,
+        REPOSITORY,
+        PUBLIC_KEY,
+        TOKEN
+    }
+
+    public enum Action {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    /**
+     * The kind of item that changed
+     */
+    public final Resource resource;
+    /**
+     * What happened to the item
+     */
+    public final Action action;
+    /**
+     * The username of the user the item belongs to. For users this is the user itself
+     */
+    public final String owner;
+    /**
+     * The name of the item e.g. the repository name, key title or token name
+     */
+    public final String name;
+    /**
+     * The id of the item or 0 if it is not known
+     */
+    public final int id;
+    /**
+     * The item as returned by the server or null if it was deleted or could not be parsed
+     */
+    public final Object value;
+
+    Invalidation(Resource resource, Action action, String owner, String name, int id, Object value) {
+        this.resource = resource;
+        this.action = action;
+        this.owner = owner;
+        this.name = name;
+        this.id = id;
+        this.value = value;
+    }
+
+    /**
+     * Returns the full name of a repository e.g. "owner/name"
+     * @return
+     */
+    public String getFullName() {
+        return owner + "/" + name;
+    }
+
+    @Override
+    public String toString() {
+        return resource + " " + action + " " + (resource == Resource.REPOSITORY ? getFullName() : owner + " " + name);
+    }
+}
@@ -0,0 +1,185 @@
+package org.unfoldingword.gogsclient;
+
+import android.util.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A json request body that is encoded straight to UTF-8 bytes.
+ * Models write their fields directly into the body so no intermediate JSONObject or String is built,
+ * and the encoded length is known before the request is sent.
+ * A body can also wrap bytes encoded earlier so a model that has not changed is not encoded again.
+ */
+class JSONBody {
+
+    private final ByteArrayOutputStream buffer;
+    private final JsonWriter writer;
+    private final byte[] encoded;
+    private boolean closed = false;
+
+    /**
+     * Begins a new json object body
+     */
+    JSONBody() {
+        this.buffer = new ByteArrayOutputStream(256);
+        this.encoded = null;
+        try {
+            this.writer = new JsonWriter(new OutputStreamWriter(buffer, "UTF-8"));
+            this.writer.beginObject();
+        } catch (UnsupportedEncodingException e) {
+            // every platform is required to support UTF-8
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JSONBody(byte[] encoded) {
+        this.buffer = null;
+        this.writer = null;
+        this.encoded = encoded;
+        this.closed = true;
+    }
+
+    /**
+     * Wraps a body that has already been encoded. Fields cannot be added to it
+     * @param encoded the bytes returned by {@link #toByteArray()}
+     * @return
+     */
+    static JSONBody wrap(byte[] encoded) {
+        return new JSONBody(encoded);
+    }
+
+    /**
+     * Adds a string field if the value is not null
+     * @param name
+     * @param value
+     * @return
+     */
+    JSONBody put(String name, String value) {
+        if(value != null) {
+            try {
+                open().name(name).value(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a boolean field
+     * @param name
+     * @param value
+     * @return
+     */
+    JSONBody put(String name, boolean value) {
+        try {
+            open().name(name).value(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a number field
+     * @param name
+     * @param value
+     * @return
+     */
+    JSONBody put(String name, long value) {
+        try {
+            open().name(name).value(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a string array field if the value is not null
+     * @param name
+     * @param values
+     * @return
+     */
+    JSONBody put(String name, String[] values) {
+        if(values != null) {
+            try {
+                open().name(name).beginArray();
+                for(String value:values) {
+                    writer.value(value);
+                }
+                writer.endArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Finishes the body and returns the number of encoded bytes
+     * @return
+     */
+    int length() {
+        close();
+        return encoded != null ? encoded.length : buffer.size();
+    }
+
+    /**
+     * Finishes the body and writes the encoded bytes to the stream
+     * @param os
+     * @throws IOException
+     */
+    void writeTo(OutputStream os) throws IOException {
+        close();
+        if(encoded != null) {
+            os.write(encoded);
+        } else {
+            buffer.writeTo(os);
+        }
+    }
+
+    /**
+     * Finishes the body and returns a copy of the encoded bytes
+     * @return
+     */
+    byte[] toByteArray() {
+        close();
+        return encoded != null ? encoded.clone() : buffer.toByteArray();
+    }
+
+    private JsonWriter open() {
+        if(closed) {
+            throw new IllegalStateException("The body has already been encoded");
+        }
+        return writer;
+    }
+
+    private void close() {
+        if(!closed) {
+            closed = true;
+            try {
+                writer.endObject();
+                writer.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        close();
+        try {
+            return encoded != null ? new String(encoded, "UTF-8") : buffer.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
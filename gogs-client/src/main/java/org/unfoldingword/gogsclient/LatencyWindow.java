@@ -0,0 +1,46 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies of an endpoint and derives a high percentile from them.
+ * The percentile is recalculated every few samples rather than on every request
+ */
+class LatencyWindow {
+
+    private static final int SIZE = 128;
+    private static final int MIN_SAMPLES = 16;
+    private static final int RECALCULATE_EVERY = 8;
+    private static final double PERCENTILE = 0.99;
+
+    private final int[] samples = new int[SIZE];
+    private int count = 0;
+    private int next = 0;
+    private int pending = 0;
+    private int percentile = -1;
+
+    /**
+     * Records the time a request waited for the response once connected
+     * @param millis
+     */
+    synchronized void record(long millis) {
+        samples[next] = (int)Math.min(Integer.MAX_VALUE, Math.max(0, millis));
+        next = (next + 1) % SIZE;
+        count = Math.min(SIZE, count + 1);
+        pending ++;
+        if(count >= MIN_SAMPLES && (percentile == -1 || pending >= RECALCULATE_EVERY)) {
+            int[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            percentile = sorted[Math.min(count - 1, (int)Math.ceil(PERCENTILE * count) - 1)];
+            pending = 0;
+        }
+    }
+
+    /**
+     * Returns the 99th percentile of the recent latencies
+     * @return the latency in milliseconds or -1 if too few requests have been measured
+     */
+    synchronized int getPercentile() {
+        return percentile;
+    }
+}
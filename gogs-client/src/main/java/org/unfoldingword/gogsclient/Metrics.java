@@ -0,0 +1,112 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transfer statistics collected by an api client
+ */
+public class Metrics {
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+    final AtomicLong bytesReceived = new AtomicLong();
+    final AtomicLong bytesDecoded = new AtomicLong();
+    final AtomicLong compressedResponses = new AtomicLong();
+    private long warmUpLatency = -1;
+    private long warmUpCompletedAt = -1;
+    private long firstRequestLatency = -1;
+    private boolean firstRequestWarm = false;
+
+    /**
+     * Returns the number of requests sent
+     * @return
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of request body bytes sent
+     * @return
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the number of response body bytes read from the network.
+     * For compressed responses this is the compressed size
+     * @return
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the number of response body bytes after decompression
+     * @return
+     */
+    public long getBytesDecoded() {
+        return bytesDecoded.get();
+    }
+
+    /**
+     * Returns the number of responses that were compressed by the server
+     * @return
+     */
+    public long getCompressedResponseCount() {
+        return compressedResponses.get();
+    }
+
+    /**
+     * Returns how long the first request of the client took to receive a response.
+     * This includes DNS resolution and connection setup unless the client was warmed up first
+     * @return the latency in milliseconds or -1 if no request has completed yet
+     */
+    public synchronized long getFirstRequestLatency() {
+        return firstRequestLatency;
+    }
+
+    /**
+     * Checks if the first request was sent after warming up had completed
+     * @return
+     */
+    public synchronized boolean isFirstRequestWarm() {
+        return firstRequestWarm;
+    }
+
+    /**
+     * Returns how long warming up took
+     * @return the duration in milliseconds or -1 if the client has not been warmed up
+     */
+    public synchronized long getWarmUpLatency() {
+        return warmUpLatency;
+    }
+
+    synchronized void recordWarmUp(long millis) {
+        warmUpLatency = millis;
+        warmUpCompletedAt = System.currentTimeMillis();
+    }
+
+    synchronized void recordFirstRequest(long startedAt, long millis) {
+        if(firstRequestLatency == -1) {
+            firstRequestLatency = millis;
+            firstRequestWarm = warmUpCompletedAt != -1 && warmUpCompletedAt <= startedAt;
+        }
+    }
+
+    /**
+     * Resets all of the counters
+     */
+    public void reset() {
+        requests.set(0);
+        bytesSent.set(0);
+        bytesReceived.set(0);
+        bytesDecoded.set(0);
+        compressedResponses.set(0);
+        synchronized (this) {
+            firstRequestLatency = -1;
+            firstRequestWarm = false;
+        }
+    }
+}
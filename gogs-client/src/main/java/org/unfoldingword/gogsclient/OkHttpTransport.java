@@ -0,0 +1,187 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A transport that multiplexes concurrent requests to a host over a single HTTP/2 connection.
+ * Servers that do not negotiate HTTP/2 are spoken to over HTTP/1.1.
+ *
+ * This requires OkHttp 3.12 or later on the classpath. The library only compiles against it so apps
+ * that use this transport must add the dependency themselves e.g. {@code implementation 'com.squareup.okhttp3:okhttp:3.12.13'}
+ *
+ * <pre>
+ * GogsAPI api = new GogsAPI(new OkHttpTransport(), "https://try.gogs.io/api/v1");
+ * </pre>
+ */
+public class OkHttpTransport implements Transport {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final OkHttpClient client;
+
+    /**
+     * Creates a transport that negotiates HTTP/2 over TLS
+     */
+    public OkHttpTransport() {
+        this(new OkHttpClient());
+    }
+
+    /**
+     * Creates a transport from a configured client.
+     * Timeouts are overridden per call by the api client's timeouts
+     * @param client
+     */
+    public OkHttpTransport(OkHttpClient client) {
+        // derived once so every call shares the client's connection pool and dispatcher
+        this.client = client.newBuilder()
+                .addInterceptor(new TimeoutInterceptor())
+                .addNetworkInterceptor(new ConnectedInterceptor())
+                .build();
+    }
+
+    /**
+     * Creates a transport that speaks cleartext HTTP/2 (h2c) without negotiation.
+     * This is meant for testing against a local server and cannot reach servers that only speak HTTP/1.1 or TLS
+     * @return
+     */
+    public static OkHttpTransport withPriorKnowledge() {
+        return new OkHttpTransport(new OkHttpClient.Builder()
+                .protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE))
+                .build());
+    }
+
+    @Override
+    public Exchange newExchange(final Request request) throws IOException {
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(request.url);
+        for(Map.Entry<String, String> header:request.headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        RequestBody body = null;
+        if(request.hasBody()) {
+            body = new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return JSON;
+                }
+
+                @Override
+                public long contentLength() {
+                    return request.getBodyLength();
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    request.writeBody(sink.outputStream());
+                }
+            };
+        }
+        builder.method(request.method, body);
+        final CallState state = new CallState(request.connectTimeout, request.readTimeout);
+        builder.tag(CallState.class, state);
+        final Call call = client.newCall(builder.build());
+        return new TimedExchange() {
+            private okhttp3.Response response = null;
+            private long startedAt = 0;
+
+            @Override
+            public int execute() throws IOException {
+                startedAt = System.currentTimeMillis();
+                response = call.execute();
+                return response.code();
+            }
+
+            @Override
+            public long getConnectMillis() {
+                long connectedAt = state.connectedAt;
+                return connectedAt > 0 ? connectedAt - startedAt : -1;
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return response.headers().toMultimap();
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                int code = response.code();
+                // match HttpURLConnection which only exposes successful bodies
+                if(code == 404 || code == 410) {
+                    throw new FileNotFoundException(request.url);
+                } else if(code >= 400) {
+                    throw new IOException("Server returned HTTP response code: " + code + " for URL: " + request.url);
+                }
+                return response.body().byteStream();
+            }
+
+            @Override
+            public void abort() {
+                call.cancel();
+            }
+
+            @Override
+            public void close() {
+                if(response != null) {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * The timeouts requested for a single call and when it was connected
+     */
+    private static class CallState {
+        final int connectTimeout;
+        final int readTimeout;
+        volatile long connectedAt = 0;
+
+        CallState(int connectTimeout, int readTimeout) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+    }
+
+    /**
+     * Applies the timeouts tagged on a request to that call only
+     */
+    private static class TimeoutInterceptor implements Interceptor {
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            CallState state = chain.request().tag(CallState.class);
+            if(state != null) {
+                chain = chain.withConnectTimeout(state.connectTimeout, TimeUnit.MILLISECONDS)
+                        .withReadTimeout(state.readTimeout, TimeUnit.MILLISECONDS);
+            }
+            return chain.proceed(chain.request());
+        }
+    }
+
+    /**
+     * Notes when a call has its connection. Network interceptors only run once the connection,
+     * including any TLS handshake, is established
+     */
+    private static class ConnectedInterceptor implements Interceptor {
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            CallState state = chain.request().tag(CallState.class);
+            if(state != null) {
+                state.connectedAt = System.currentTimeMillis();
+            }
+            return chain.proceed(chain.request());
+        }
+    }
+}
@@ -0,0 +1,628 @@
+package org.unfoldingword.gogsclient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Queues mutating calls while offline and replays them once the server can be reached.
+ *
+ * Operations are journaled to a file so they survive restarts. Operations that cancel or supersede each
+ * other are coalesced before anything is sent, e.g. creating and then deleting the same repository sends nothing.
+ * A flush replays operations that target the same repository, user or key list in order while unrelated
+ * operations run concurrently as background work on the api's {@link Dispatcher}.
+ *
+ * Passwords and tokens are never written to the journal. The credentials of the authenticating users are looked
+ * up with the {@link Authenticator} when the operations are replayed. The journal does contain the other fields
+ * of edited users and only notes that an edit changes the password. After a restart the new password is asked for
+ * from an authenticator that is also a {@link PasswordProvider}.
+ */
+public class Outbox {
+
+    private static final int VERSION = 1;
+
+    private final GogsAPI api;
+    private final File journal;
+    private final Authenticator authenticator;
+    private final List<Operation> operations = new ArrayList<>();
+    private final Set<Operation> inFlight = Collections.newSetFromMap(new IdentityHashMap<Operation, Boolean>());
+    private final Object flushLock = new Object();
+    private Listener listener = null;
+
+    /**
+     * Creates a new outbox and loads any operations already in the journal
+     * @param api the api used to replay the operations
+     * @param journal the file in which operations are stored
+     * @param authenticator provides the credentials used when replaying
+     */
+    public Outbox(GogsAPI api, File journal, Authenticator authenticator) {
+        this.api = api;
+        this.journal = journal;
+        this.authenticator = authenticator;
+        load();
+    }
+
+    /**
+     * Sets the listener that is notified as operations are replayed
+     * @param listener
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues the creation of a repository
+     * @param repo the repository being created. Requires name, description, private
+     * @param user the user creating the repository. Requires username
+     * @return true if the operation was journaled
+     */
+    public boolean createRepo(Repository repo, User user) {
+        if(repo == null || user == null) {
+            return false;
+        }
+        return enqueue(new Operation(Type.CREATE_REPO, user.getUsername(), repo, null, null));
+    }
+
+    /**
+     * Queues the deletion of a repository
+     * @param repo the repository to delete. Requires name
+     * @param user the user that owns the repository. Requires username
+     * @return true if the operation was journaled
+     */
+    public boolean deleteRepo(Repository repo, User user) {
+        if(repo == null || user == null) {
+            return false;
+        }
+        return enqueue(new Operation(Type.DELETE_REPO, user.getUsername(), repo, null, null));
+    }
+
+    /**
+     * Queues an edit to a user
+     * @param user the user with the new values. Requires username
+     * @param authUser the user authenticating the edit. Requires username
+     * @return true if the operation was journaled
+     */
+    public boolean editUser(User user, User authUser) {
+        if(user == null || authUser == null) {
+            return false;
+        }
+        return enqueue(new Operation(Type.EDIT_USER, authUser.getUsername(), null, user, null));
+    }
+
+    /**
+     * Queues the creation of a public key
+     * @param key the key to be created. Requires title and key
+     * @param user the user creating the key. Requires username
+     * @return true if the operation was journaled
+     */
+    public boolean createPublicKey(PublicKey key, User user) {
+        if(key == null || user == null) {
+            return false;
+        }
+        return enqueue(new Operation(Type.CREATE_PUBLIC_KEY, user.getUsername(), null, null, key));
+    }
+
+    /**
+     * Returns the operations waiting to be replayed in the order they will be sent
+     * @return
+     */
+    public synchronized List<Operation> getPending() {
+        return new ArrayList<>(operations);
+    }
+
+    /**
+     * Returns the number of operations waiting to be replayed
+     * @return
+     */
+    public synchronized int size() {
+        return operations.size();
+    }
+
+    /**
+     * Replays the queued operations. Call this when connectivity returns.
+     * Operations that fail because the server could not be reached stay queued along with those that follow them
+     * @return the number of operations still queued
+     */
+    public int flush() {
+        synchronized (flushLock) {
+            Map<String, List<Operation>> groups = new LinkedHashMap<>();
+            synchronized (this) {
+                for(Operation op:operations) {
+                    List<Operation> group = groups.get(op.getTarget());
+                    if(group == null) {
+                        group = new ArrayList<>();
+                        groups.put(op.getTarget(), group);
+                    }
+                    group.add(op);
+                }
+                inFlight.addAll(operations);
+            }
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for(final List<Operation> group:groups.values()) {
+                    futures.add(api.getDispatcher().submit(Dispatcher.Priority.BACKGROUND, new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            replay(group);
+                            return null;
+                        }
+                    }));
+                }
+                for(Future<Void> future:futures) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    } catch (ExecutionException e) {
+                        // the group stays queued and is retried on the next flush
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    inFlight.clear();
+                }
+            }
+            return size();
+        }
+    }
+
+    /**
+     * Replays the queued operations without blocking the calling thread
+     * @return a future that completes with the result of {@link #flush()}
+     */
+    public Future<Integer> flushInBackground() {
+        FutureTask<Integer> task = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return flush();
+            }
+        });
+        // not run on the dispatcher itself since the groups submitted from a dispatcher thread would run one at a time
+        Thread thread = new Thread(task, "gogs-outbox");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Sends the operations of a group in order until one of them needs to be retried
+     * @param group
+     */
+    private void replay(List<Operation> group) {
+        for(Operation op:group) {
+            User user = authenticator.getUser(op.username);
+            Operation sendable = user != null ? withPassword(op) : null;
+            if(sendable == null) {
+                return;
+            }
+            Outcome outcome = send(sendable, user);
+            if(outcome == Outcome.RETRY) {
+                return;
+            }
+            Listener listener;
+            synchronized (this) {
+                operations.remove(op);
+                inFlight.remove(op);
+                save();
+                listener = this.listener;
+            }
+            if(listener != null) {
+                if(outcome == Outcome.APPLIED) {
+                    listener.onApplied(op);
+                } else {
+                    listener.onRejected(op, api.getThreadResponse());
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the new password of a user edit that was loaded from the journal.
+     * The password is set on a copy so the queued user is never changed.
+     * @param op
+     * @return the operation to send or null if the password is needed but could not be provided
+     */
+    private Operation withPassword(Operation op) {
+        if(!op.needsPassword()) {
+            return op;
+        }
+        String password = authenticator instanceof PasswordProvider
+                ? ((PasswordProvider)authenticator).getNewPassword(op.user.getUsername()) : null;
+        if(password == null || password.isEmpty()) {
+            return null;
+        }
+        User user = copy(op.user);
+        user.password = password;
+        return new Operation(op.type, op.username, null, user, null, true);
+    }
+
+    /**
+     * Copies a user so the caller's object is not changed
+     * @param user
+     * @return
+     */
+    private static User copy(User user) {
+        try {
+            return User.fromJSON(user.toJSON());
+        } catch (JSONException e) {
+            return user;
+        }
+    }
+
+    /**
+     * Sends a single operation
+     * @param op
+     * @param user the authenticating user
+     * @return
+     */
+    private Outcome send(Operation op, User user) {
+        boolean done;
+        switch(op.type) {
+            case CREATE_REPO:
+                done = api.createRepo(op.repo, user) != null;
+                break;
+            case DELETE_REPO:
+                done = api.deleteRepo(op.repo, user);
+                break;
+            case EDIT_USER:
+                done = api.editUser(op.user, user) != null;
+                break;
+            default:
+                done = api.createPublicKey(op.key, user) != null;
+                break;
+        }
+        Response response = api.getThreadResponse();
+        ErrorType error = response != null ? response.getError() : null;
+        if(done || error == null || error == ErrorType.PARSE) {
+            // a response that could not be parsed was still accepted by the server
+            return Outcome.APPLIED;
+        }
+        switch(error) {
+            case CONFLICT:
+                // the item already exists, most likely from an earlier flush that was interrupted
+                return op.type == Type.EDIT_USER ? Outcome.REJECTED : Outcome.APPLIED;
+            case NOT_FOUND:
+                return op.type == Type.DELETE_REPO ? Outcome.APPLIED : Outcome.REJECTED;
+            case REQUEST:
+                return Outcome.REJECTED;
+            default:
+                // unreachable, timed out or the credentials need to be refreshed
+                return Outcome.RETRY;
+        }
+    }
+
+    /**
+     * Adds an operation, coalescing it with the queued operations on the same target
+     * @param op
+     * @return true if the journal was updated
+     */
+    private synchronized boolean enqueue(Operation op) {
+        Operation last = null;
+        for(int i = operations.size() - 1; i >= 0; i --) {
+            if(operations.get(i).getTarget().equals(op.getTarget())) {
+                last = operations.get(i);
+                break;
+            }
+        }
+        if(last != null && !inFlight.contains(last)) {
+            if(op.type == Type.DELETE_REPO && last.type == Type.CREATE_REPO) {
+                // the repository was never sent so neither operation needs to be
+                operations.remove(last);
+                return save();
+            } else if(op.type == last.type && op.type != Type.CREATE_PUBLIC_KEY) {
+                if(op.type == Type.EDIT_USER) {
+                    // every field is sent so the latest edit supersedes the earlier one
+                    if(!op.changesPassword() && last.changesPassword()) {
+                        // except an earlier password change which must still be made
+                        User user = op.user;
+                        if(last.user.password != null && !last.user.password.isEmpty()) {
+                            user = copy(op.user);
+                            user.password = last.user.password;
+                        }
+                        op = new Operation(op.type, op.username, null, user, null, true);
+                    }
+                    operations.set(operations.indexOf(last), op);
+                    return save();
+                }
+                // creating or deleting the same repository twice only needs to happen once
+                return true;
+            } else if(op.type == Type.CREATE_PUBLIC_KEY && last.type == Type.CREATE_PUBLIC_KEY
+                    && isSameKey(op.key, last.key)) {
+                return true;
+            }
+        }
+        operations.add(op);
+        if(!save()) {
+            operations.remove(op);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isSameKey(PublicKey a, PublicKey b) {
+        return a.getKey() != null && a.getKey().equals(b.getKey());
+    }
+
+    /**
+     * Writes the queue to the journal. The file is replaced atomically so a crash never leaves it half written
+     * @return true if the journal was written
+     */
+    private synchronized boolean save() {
+        JSONObject json = new JSONObject();
+        JSONArray items = new JSONArray();
+        for(Operation op:operations) {
+            items.put(op.toJSON());
+        }
+        Util.addToJSON(json, "version", VERSION);
+        Util.addToJSON(json, "operations", items);
+        File temp = new File(journal.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(json.toString().getBytes("UTF-8"));
+            out.getFD().sync();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if(out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // the data has already been synced
+                }
+            }
+        }
+        return temp.renameTo(journal);
+    }
+
+    /**
+     * Reads the queue from the journal
+     */
+    private synchronized void load() {
+        if(!journal.exists()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        InputStreamReader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(journal), "UTF-8");
+            char[] buffer = new char[4096];
+            int read;
+            while((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            JSONArray items = new JSONObject(sb.toString()).optJSONArray("operations");
+            if(items != null) {
+                for(int i = 0; i < items.length(); i ++) {
+                    Operation op = Operation.fromJSON(items.optJSONObject(i));
+                    if(op != null) {
+                        operations.add(op);
+                    }
+                }
+            }
+        } catch (IOException | JSONException e) {
+            // an unreadable journal is treated as empty
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing was written
+                }
+            }
+        }
+    }
+
+    private enum Outcome {
+        APPLIED,
+        REJECTED,
+        RETRY
+    }
+
+    public enum Type {
+        CREATE_REPO,
+        DELETE_REPO,
+        EDIT_USER,
+        CREATE_PUBLIC_KEY
+    }
+
+    /**
+     * A queued mutating call
+     */
+    public static class Operation {
+        private final Type type;
+        private final String username;
+        private final Repository repo;
+        private final User user;
+        private final PublicKey key;
+        // the edit changes the password but it was not journaled
+        private final boolean passwordChanged;
+
+        private Operation(Type type, String username, Repository repo, User user, PublicKey key) {
+            this(type, username, repo, user, key, false);
+        }
+
+        private Operation(Type type, String username, Repository repo, User user, PublicKey key, boolean passwordChanged) {
+            this.type = type;
+            this.username = username;
+            this.repo = repo;
+            this.user = user;
+            this.key = key;
+            this.passwordChanged = passwordChanged;
+        }
+
+        /**
+         * Checks if the edit changes the password
+         * @return
+         */
+        boolean changesPassword() {
+            return passwordChanged || (user != null && user.password != null && !user.password.isEmpty());
+        }
+
+        /**
+         * Checks if the edit changes the password but the password has not been provided since it was loaded
+         * @return
+         */
+        boolean needsPassword() {
+            return passwordChanged && (user.password == null || user.password.isEmpty());
+        }
+
+        /**
+         * Returns the kind of call
+         * @return
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns the username of the user who authenticates the call
+         * @return
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Returns the repository being created or deleted
+         * @return the repository or null
+         */
+        public Repository getRepository() {
+            return repo;
+        }
+
+        /**
+         * Returns the user being edited
+         * @return the user or null
+         */
+        public User getUser() {
+            return user;
+        }
+
+        /**
+         * Returns the public key being created
+         * @return the key or null
+         */
+        public PublicKey getPublicKey() {
+            return key;
+        }
+
+        /**
+         * Identifies what the operation changes. Operations on the same target must be sent in order
+         * @return
+         */
+        String getTarget() {
+            switch(type) {
+                case CREATE_REPO:
+                case DELETE_REPO:
+                    return "repo:" + username + "/" + repo.getName();
+                case EDIT_USER:
+                    return "user:" + user.getUsername();
+                default:
+                    return "keys:" + username;
+            }
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            Util.addToJSON(json, "type", type.name());
+            Util.addToJSON(json, "username", username);
+            if(repo != null) {
+                Util.addToJSON(json, "repo", repo.toJSON());
+            }
+            if(user != null) {
+                try {
+                    JSONObject userJson = user.toJSON();
+                    // the new password is asked for again when replaying after a restart
+                    userJson.remove("password");
+                    Util.addToJSON(json, "user", userJson);
+                } catch (JSONException e) {
+                    // only thrown for non-finite numbers which are never stored
+                }
+                if(changesPassword()) {
+                    Util.addToJSON(json, "password_changed", true);
+                }
+            }
+            if(key != null) {
+                JSONObject keyJson = new JSONObject();
+                Util.addToJSON(keyJson, "title", key.getTitle());
+                Util.addToJSON(keyJson, "key", key.getKey());
+                Util.addToJSON(json, "key", keyJson);
+            }
+            return json;
+        }
+
+        static Operation fromJSON(JSONObject json) {
+            if(json == null) {
+                return null;
+            }
+            Type type;
+            try {
+                type = Type.valueOf(json.optString("type"));
+            } catch (IllegalArgumentException e) {
+                // written by a newer version of the library
+                return null;
+            }
+            Repository repo = Repository.fromJSON(json.optJSONObject("repo"));
+            User user = User.fromJSON(json.optJSONObject("user"));
+            PublicKey key = PublicKey.fromJSON(json.optJSONObject("key"));
+            String username = json.optString("username", null);
+            if(username == null
+                    || ((type == Type.CREATE_REPO || type == Type.DELETE_REPO) && repo == null)
+                    || (type == Type.EDIT_USER && user == null)
+                    || (type == Type.CREATE_PUBLIC_KEY && key == null)) {
+                return null;
+            }
+            return new Operation(type, username, repo, user, key, user != null && json.optBoolean("password_changed", false));
+        }
+    }
+
+    /**
+     * Provides the credentials of the users whose operations are being replayed
+     */
+    public interface Authenticator {
+        /**
+         * @param username
+         * @return the user with a token or password, or null to keep the operations queued
+         */
+        User getUser(String username);
+    }
+
+    /**
+     * Implemented by an {@link Authenticator} that can provide the new passwords of user edits.
+     * Edits that change a password and were loaded from the journal stay queued until the password is provided
+     */
+    public interface PasswordProvider {
+        /**
+         * @param username the user being edited
+         * @return the new password, or null to keep the edit queued
+         */
+        String getNewPassword(String username);
+    }
+
+    /**
+     * Receives the results of replayed operations
+     */
+    public interface Listener {
+        void onApplied(Operation op);
+        void onRejected(Operation op, Response response);
+    }
+}
@@ -13,6 +13,7 @@ public class PublicKey {
     private int id;
     private String url;
     private String createdAt;
+    private volatile EncodedBody encodedBody = null;
 
     /**
      * Create a key that holds just the id. This allows us to look up the full key description from the api
@@ -43,12 +44,28 @@ public class PublicKey {
                 key.createdAt = (String)Util.getFromJSON(json, "created_at", null);
                 return key;
             } catch (JSONException e) {
-                e.printStackTrace();
+                // the title or key is missing
             }
         }
         return null;
     }
 
+    /**
+     * Converts the key to the request body that adds it.
+     * The title and key cannot change so it is only encoded once
+     * @return
+     */
+    JSONBody toJSONBody() {
+        EncodedBody encoded = this.encodedBody;
+        if(encoded == null) {
+            encoded = new EncodedBody(new JSONBody()
+                    .put("title", this.title)
+                    .put("key", this.key));
+            this.encodedBody = encoded;
+        }
+        return encoded.toJSONBody();
+    }
+
     public String getCreatedAt() {
         return createdAt;
     }
@@ -0,0 +1,18 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * Emits models to subscribers as they are decoded from the api.
+ *
+ * This mirrors java.util.concurrent.Flow.Publisher, which is not available on older versions of Android,
+ * so publishers can be adapted to Flow or other reactive libraries with a thin wrapper.
+ * Every subscription performs its own requests.
+ */
+public interface Publisher<T> {
+
+    /**
+     * Starts emitting to the subscriber.
+     * Nothing is downloaded until the subscriber requests items through its {@link Subscription}
+     * @param subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,42 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * A token bucket that limits the rate of requests while allowing short bursts
+ */
+class RateLimiter {
+
+    private final double perMilli;
+    private final double burst;
+    private double tokens;
+    private long updatedAt;
+
+    /**
+     * @param requestsPerSecond the sustained rate
+     * @param burst the number of requests that may be sent at once after a quiet period
+     */
+    RateLimiter(double requestsPerSecond, int burst) {
+        this.perMilli = requestsPerSecond / 1000.0;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.updatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Reserves the budget for a request
+     * @return the number of milliseconds to wait before sending it
+     */
+    synchronized long reserve() {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(burst, tokens + (now - updatedAt) * perMilli);
+        updatedAt = now;
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long)Math.ceil(-tokens / perMilli);
+    }
+
+    /**
+     * Returns the budget of a request that was not sent
+     */
+    synchronized void refund() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+}
@@ -0,0 +1,135 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request and response captured by a {@link RecordingTransport}.
+ *
+ * Records are written in a compact binary form. The body is kept exactly as it was received over the wire,
+ * still compressed if the server compressed it, so replaying reproduces the same transfer sizes and decoding work.
+ */
+class RecordedExchange {
+
+    static final int MAGIC = 0x474F4753;
+    static final int VERSION = 1;
+    static final String REDACTED = "<redacted>";
+
+    final String method;
+    /**
+     * The path and query relative to the host so a recording can be replayed against any server
+     */
+    final String path;
+    final int requestLength;
+    final int code;
+    final Map<String, List<String>> headers;
+    /**
+     * Milliseconds from sending the request until the response headers arrived
+     */
+    final long headerMillis;
+    /**
+     * Milliseconds spent reading the body
+     */
+    final long bodyMillis;
+    final byte[] body;
+
+    RecordedExchange(String method, String path, int requestLength, int code, Map<String, List<String>> headers,
+                     long headerMillis, long bodyMillis, byte[] body) {
+        this.method = method;
+        this.path = path;
+        this.requestLength = requestLength;
+        this.code = code;
+        this.headers = headers;
+        this.headerMillis = headerMillis;
+        this.bodyMillis = bodyMillis;
+        this.body = body;
+    }
+
+    /**
+     * Returns the key used to match a request to its recording
+     * @param method
+     * @param path
+     * @return
+     */
+    static String key(String method, String path) {
+        return method + " " + path;
+    }
+
+    /**
+     * Removes the scheme and host from a url
+     * @param url
+     * @return
+     */
+    static String pathOf(String url) {
+        int scheme = url.indexOf("://");
+        int start = url.indexOf('/', scheme == -1 ? 0 : scheme + 3);
+        return start == -1 ? "/" : url.substring(start);
+    }
+
+    /**
+     * Checks if a header carries credentials and must not be written to a recording
+     * @param name
+     * @return
+     */
+    static boolean isSensitive(String name) {
+        return name.equalsIgnoreCase("Authorization") || name.equalsIgnoreCase("Cookie")
+                || name.equalsIgnoreCase("Set-Cookie") || name.equalsIgnoreCase("Proxy-Authorization");
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(method);
+        out.writeUTF(path);
+        out.writeInt(requestLength);
+        out.writeInt(code);
+        out.writeLong(headerMillis);
+        out.writeLong(bodyMillis);
+        int count = 0;
+        for(Map.Entry<String, List<String>> entry:headers.entrySet()) {
+            if(entry.getKey() != null) {
+                count += entry.getValue().size();
+            }
+        }
+        out.writeInt(count);
+        for(Map.Entry<String, List<String>> entry:headers.entrySet()) {
+            if(entry.getKey() == null) {
+                // the status line
+                continue;
+            }
+            for(String value:entry.getValue()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(isSensitive(entry.getKey()) ? REDACTED : value);
+            }
+        }
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    static RecordedExchange read(DataInputStream in) throws IOException {
+        String method = in.readUTF();
+        String path = in.readUTF();
+        int requestLength = in.readInt();
+        int code = in.readInt();
+        long headerMillis = in.readLong();
+        long bodyMillis = in.readLong();
+        int count = in.readInt();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for(int i = 0; i < count; i ++) {
+            String name = in.readUTF();
+            String value = in.readUTF();
+            List<String> values = headers.get(name);
+            if(values == null) {
+                values = new ArrayList<>();
+                headers.put(name, values);
+            }
+            values.add(value);
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new RecordedExchange(method, path, requestLength, code, headers, headerMillis, bodyMillis, body);
+    }
+}
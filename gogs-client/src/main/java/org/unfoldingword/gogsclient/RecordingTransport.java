@@ -0,0 +1,169 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A transport that captures every exchange to a file while passing it through to another transport.
+ * The recording can be served back by a {@link ReplayTransport} for deterministic offline benchmarks.
+ *
+ * Authorization and cookie headers are redacted and request bodies are not stored, only their size.
+ * Response bodies are stored as received so do not record calls that return secrets such as tokens
+ * if the file will be shared.
+ *
+ * <pre>
+ * RecordingTransport recorder = new RecordingTransport(new File("traffic.rec"));
+ * GogsAPI api = new GogsAPI(recorder, "https://try.gogs.io/api/v1");
+ * // use the api
+ * recorder.close();
+ * </pre>
+ */
+public class RecordingTransport implements Transport, Closeable {
+
+    private final Transport delegate;
+    private final DataOutputStream out;
+    private int count = 0;
+
+    /**
+     * Records the exchanges of the default transport
+     * @param file the recording to create. An existing file is replaced
+     * @throws IOException
+     */
+    public RecordingTransport(File file) throws IOException {
+        this(new UrlConnectionTransport(), file);
+    }
+
+    /**
+     * Records the exchanges of another transport
+     * @param delegate the transport that performs the exchanges
+     * @param file the recording to create. An existing file is replaced
+     * @throws IOException
+     */
+    public RecordingTransport(Transport delegate, File file) throws IOException {
+        this.delegate = delegate;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.out.writeInt(RecordedExchange.MAGIC);
+        this.out.writeInt(RecordedExchange.VERSION);
+        this.out.flush();
+    }
+
+    /**
+     * Returns the number of exchanges recorded so far
+     * @return
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    @Override
+    public Exchange newExchange(final Request request) throws IOException {
+        final Exchange exchange = delegate.newExchange(request);
+        return new TimedExchange() {
+            private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            private int code = -1;
+            private long sentAt;
+            private long headerMillis;
+            private long bodyStartedAt = -1;
+            private long bodyFinishedAt = -1;
+            private volatile boolean aborted = false;
+
+            @Override
+            public int execute() throws IOException {
+                sentAt = System.currentTimeMillis();
+                code = exchange.execute();
+                headerMillis = System.currentTimeMillis() - sentAt;
+                return code;
+            }
+
+            @Override
+            public long getConnectMillis() {
+                return exchange instanceof TimedExchange ? ((TimedExchange)exchange).getConnectMillis() : -1;
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return exchange.getHeaders();
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                bodyStartedAt = System.currentTimeMillis();
+                return new FilterInputStream(exchange.getBody()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        if(b != -1) {
+                            body.write(b);
+                        } else {
+                            bodyFinishedAt = System.currentTimeMillis();
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int read = super.read(buffer, offset, length);
+                        if(read > 0) {
+                            body.write(buffer, offset, read);
+                        } else if(read == -1) {
+                            bodyFinishedAt = System.currentTimeMillis();
+                        }
+                        return read;
+                    }
+                };
+            }
+
+            @Override
+            public void abort() {
+                aborted = true;
+                exchange.abort();
+            }
+
+            @Override
+            public void close() {
+                if(code == -1 || aborted) {
+                    // a failed or partial exchange would not replay the same way
+                    exchange.close();
+                    return;
+                }
+                long end = bodyFinishedAt != -1 ? bodyFinishedAt : System.currentTimeMillis();
+                long bodyMillis = bodyStartedAt != -1 ? Math.max(0, end - bodyStartedAt) : 0;
+                Map<String, List<String>> headers = exchange.getHeaders();
+                exchange.close();
+                record(new RecordedExchange(request.method, RecordedExchange.pathOf(request.url),
+                        Math.max(0, request.getBodyLength()), code,
+                        headers != null ? headers : Collections.<String, List<String>>emptyMap(),
+                        headerMillis, bodyMillis, body.toByteArray()));
+            }
+        };
+    }
+
+    private synchronized void record(RecordedExchange exchange) {
+        try {
+            exchange.write(out);
+            out.flush();
+            count ++;
+        } catch (IOException e) {
+            // a failed write only loses this record
+        }
+    }
+
+    /**
+     * Finishes the recording
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,195 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A transport that serves the responses captured by a {@link RecordingTransport} without touching the network.
+ *
+ * Requests are matched to recordings by method, path and query so the recording can be replayed against any
+ * api url. Repeated requests receive the recorded responses in order and start over once they run out.
+ * Responses are paced to take the recorded time divided by the speed so benchmarks see real traffic shapes.
+ *
+ * <pre>
+ * GogsAPI api = new GogsAPI(new ReplayTransport(new File("traffic.rec"), 1.0), "https://try.gogs.io/api/v1");
+ * </pre>
+ */
+public class ReplayTransport implements Transport {
+
+    private final Map<String, List<RecordedExchange>> recordings = new HashMap<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final double speed;
+    private int count = 0;
+
+    /**
+     * Loads a recording that is replayed at the recorded speed
+     * @param file
+     * @throws IOException
+     */
+    public ReplayTransport(File file) throws IOException {
+        this(file, 1.0);
+    }
+
+    /**
+     * Loads a recording
+     * @param file
+     * @param speed how much faster than recorded to replay e.g. 2.0 takes half as long. 0 replays without any delay
+     * @throws IOException if the file is not a recording
+     */
+    public ReplayTransport(File file, double speed) throws IOException {
+        this.speed = speed;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt() != RecordedExchange.MAGIC || in.readInt() > RecordedExchange.VERSION) {
+                throw new IOException("Unsupported recording " + file);
+            }
+            while(true) {
+                RecordedExchange exchange;
+                try {
+                    exchange = RecordedExchange.read(in);
+                } catch (EOFException e) {
+                    // the end of the recording or a record cut short when recording stopped
+                    break;
+                }
+                String key = RecordedExchange.key(exchange.method, exchange.path);
+                List<RecordedExchange> list = recordings.get(key);
+                if(list == null) {
+                    list = new ArrayList<>();
+                    recordings.put(key, list);
+                }
+                list.add(exchange);
+                count ++;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the number of recorded exchanges
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public Exchange newExchange(final Request request) throws IOException {
+        final String path = RecordedExchange.pathOf(request.url);
+        final RecordedExchange recording = next(RecordedExchange.key(request.method, path));
+        if(recording == null) {
+            throw new IOException("No recorded response for " + request.method + " " + path);
+        }
+        return new Exchange() {
+            private boolean aborted = false;
+
+            @Override
+            public int execute() throws IOException {
+                pause(System.currentTimeMillis() + scale(recording.headerMillis));
+                return recording.code;
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return recording.headers;
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                // match HttpURLConnection which only exposes successful bodies
+                if(recording.code == 404 || recording.code == 410) {
+                    throw new FileNotFoundException(request.url);
+                } else if(recording.code >= 400) {
+                    throw new IOException("Server returned HTTP response code: " + recording.code + " for URL: " + request.url);
+                }
+                final long start = System.currentTimeMillis();
+                final long duration = scale(recording.bodyMillis);
+                final int length = recording.body.length;
+                return new FilterInputStream(new ByteArrayInputStream(recording.body)) {
+                    private int position = 0;
+
+                    @Override
+                    public int read() throws IOException {
+                        byte[] one = new byte[1];
+                        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int max) throws IOException {
+                        int read = super.read(buffer, offset, max);
+                        if(read > 0 && duration > 0) {
+                            position += read;
+                            // deliver the bytes no sooner than they arrived in the recording
+                            pause(start + duration * position / Math.max(1, length));
+                        }
+                        return read;
+                    }
+                };
+            }
+
+            @Override
+            public synchronized void abort() {
+                aborted = true;
+                notifyAll();
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+
+            /**
+             * Waits until the time unless the exchange is aborted
+             * @param until
+             * @throws IOException
+             */
+            private synchronized void pause(long until) throws IOException {
+                long remaining;
+                while(!aborted && (remaining = until - System.currentTimeMillis()) > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if(aborted) {
+                    throw new IOException("Canceled");
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the next recording for the request, starting over once they have all been used
+     * @param key
+     * @return the recording or null if the request was never recorded
+     */
+    private synchronized RecordedExchange next(String key) {
+        List<RecordedExchange> list = recordings.get(key);
+        if(list == null) {
+            return null;
+        }
+        Integer position = positions.get(key);
+        int index = position != null ? position : 0;
+        positions.put(key, (index + 1) % list.size());
+        return list.get(index);
+    }
+
+    private long scale(long millis) {
+        return speed > 0 ? (long)(millis / speed) : 0;
+    }
+}
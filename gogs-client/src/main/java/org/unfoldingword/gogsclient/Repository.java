@@ -18,6 +18,7 @@ public class Repository {
     private String cloneUrl = "";
     private String sshUrl = "";
     private User owner;
+    private volatile EncodedBody encodedBody = null;
 
     private Repository() {}
 
@@ -44,13 +45,7 @@ public class Repository {
             repo.htmlUrl = (String)Util.getFromJSON(json, "html_url", null);
             repo.cloneUrl = (String)Util.getFromJSON(json, "clone_url", null);
             repo.sshUrl = (String)Util.getFromJSON(json, "ssh_url", null);
-            if(json.has("owner")) {
-                try {
-                    repo.owner = User.fromJSON(json.getJSONObject("owner"));
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
+            repo.owner = User.fromJSON(json.optJSONObject("owner"));
             // TODO: 2/24/2016 get permissions
             return repo;
         }
@@ -74,15 +69,32 @@ public class Repository {
         json = Util.addToJSON(json, "ssh_url", this.sshUrl);
         if(this.owner != null) {
             try {
-                json.put("owner", this.owner.toJSON());
+                json = Util.addToJSON(json, "owner", this.owner.toJSON());
             } catch (JSONException e) {
-                e.printStackTrace();
+                // only thrown for non-finite numbers which are never stored
             }
         }
 
         return json;
     }
 
+    /**
+     * Converts the repository to the request body that creates it.
+     * The fields cannot change so it is only encoded once
+     * @return
+     */
+    JSONBody toJSONBody() {
+        EncodedBody encoded = this.encodedBody;
+        if(encoded == null) {
+            encoded = new EncodedBody(new JSONBody()
+                    .put("name", this.name)
+                    .put("description", this.description)
+                    .put("private", this.isPrivate));
+            this.encodedBody = encoded;
+        }
+        return encoded.toJSONBody();
+    }
+
     public String getName() {
         return name;
     }
@@ -0,0 +1,390 @@
+package org.unfoldingword.gogsclient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps a local snapshot of the repositories accessible to a user in sync with the server.
+ *
+ * Each sync sends the validators of the last listing in case the server supports conditional requests, but Gogs
+ * sends neither an ETag nor a Last-Modified header so normally the full listing is downloaded and compared by its hash.
+ * When the listing did change the body is split into the raw text of each repository and hashed without parsing.
+ * Only the repositories whose content hash is not in the snapshot are parsed and reported to the listener.
+ */
+public class RepositorySync {
+
+    private final GogsAPI api;
+    private final User user;
+    private final Map<Integer, Repository> repos = new HashMap<>();
+    private final Map<Integer, String> hashes = new HashMap<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String listingHash = null;
+    private String etag = null;
+    private String lastModified = null;
+    private Listener listener = null;
+    private final GogsAPI.InvalidationListener invalidationListener = new GogsAPI.InvalidationListener() {
+        @Override
+        public void onInvalidate(Invalidation invalidation) {
+            if(invalidation.resource == Invalidation.Resource.REPOSITORY && user.getUsername() != null
+                    && user.getUsername().equals(invalidation.owner)) {
+                apply(invalidation);
+            }
+        }
+    };
+
+    /**
+     * Creates a new sync engine
+     * @param api the api used to retrieve the repositories
+     * @param user the user who's repositories will be synced. Requires token or username and password
+     */
+    public RepositorySync(GogsAPI api, User user) {
+        this.api = api;
+        this.user = user;
+        api.addWeakInvalidationListener(invalidationListener);
+    }
+
+    /**
+     * Sets the listener that will receive change events during a sync
+     * @param listener
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Fetches the repository listing and applies any changes to the snapshot
+     * @return true if the server was reached and the snapshot is up to date
+     */
+    public synchronized boolean sync() {
+        Map<String, String> headers = new HashMap<>();
+        if(etag != null) {
+            headers.put("If-None-Match", etag);
+        }
+        if(lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        Response response = api.request(Endpoint.USER_REPOS.route(), user, null, null, headers);
+        if(response.code == 304) {
+            return true;
+        }
+        if(response.code != 200 || response.data == null) {
+            return false;
+        }
+        etag = response.getHeader("ETag");
+        lastModified = response.getHeader("Last-Modified");
+
+        // servers that do not support validators still return an identical body
+        String bodyHash = hash(response.data);
+        if(bodyHash.equals(listingHash)) {
+            return true;
+        }
+
+        List<Repository> added = new ArrayList<>();
+        List<Repository[]> modified = new ArrayList<>();
+        List<Repository> removed = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        Map<Integer, Repository> changed = new HashMap<>();
+        Map<Integer, String> changedHashes = new HashMap<>();
+        try {
+            for(String item:splitObjects(response.data)) {
+                String repoHash = hash(item);
+                Integer knownId = ids.get(repoHash);
+                if(knownId != null && repoHash.equals(hashes.get(knownId))) {
+                    seen.add(knownId);
+                    continue;
+                }
+                JSONObject json = new JSONObject(item);
+                int id = json.optInt("id", 0);
+                seen.add(id);
+                changed.put(id, Repository.fromJSON(json));
+                changedHashes.put(id, repoHash);
+            }
+        } catch (JSONException e) {
+            api.parseFailed(response, e);
+            return false;
+        }
+
+        for(Map.Entry<Integer, Repository> entry:changed.entrySet()) {
+            int id = entry.getKey();
+            Repository repo = entry.getValue();
+            Repository oldRepo = repos.put(id, repo);
+            String oldHash = hashes.put(id, changedHashes.get(id));
+            if(oldHash != null) {
+                ids.remove(oldHash);
+            }
+            ids.put(changedHashes.get(id), id);
+            if(oldRepo == null) {
+                added.add(repo);
+            } else {
+                modified.add(new Repository[]{oldRepo, repo});
+            }
+        }
+        Iterator<Map.Entry<Integer, Repository>> it = repos.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Integer, Repository> entry = it.next();
+            if(!seen.contains(entry.getKey())) {
+                removed.add(entry.getValue());
+                ids.remove(hashes.remove(entry.getKey()));
+                it.remove();
+            }
+        }
+        listingHash = bodyHash;
+
+        if(listener != null) {
+            for(Repository repo:added) {
+                listener.onRepositoryAdded(repo);
+            }
+            for(Repository[] pair:modified) {
+                listener.onRepositoryModified(pair[0], pair[1]);
+            }
+            for(Repository repo:removed) {
+                listener.onRepositoryRemoved(repo);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies a change the user made through the api.
+     * Deleted repositories are dropped from the snapshot right away and the validators are cleared
+     * so the next sync fetches the listing instead of trusting a cached 304
+     * @param invalidation
+     */
+    private synchronized void apply(Invalidation invalidation) {
+        etag = null;
+        lastModified = null;
+        listingHash = null;
+        if(invalidation.action != Invalidation.Action.DELETED) {
+            return;
+        }
+        Iterator<Map.Entry<Integer, Repository>> it = repos.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Integer, Repository> entry = it.next();
+            if(isSameRepository(entry.getValue(), invalidation)) {
+                ids.remove(hashes.remove(entry.getKey()));
+                it.remove();
+                if(listener != null) {
+                    listener.onRepositoryRemoved(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the invalidation is about the repository.
+     * The listing includes repositories of other owners so the name alone is not enough
+     * @param repo
+     * @param invalidation
+     * @return false if the repository cannot be identified
+     */
+    private static boolean isSameRepository(Repository repo, Invalidation invalidation) {
+        if(invalidation.id > 0 && repo.getId() > 0) {
+            return invalidation.id == repo.getId();
+        }
+        if(invalidation.name == null || !invalidation.name.equalsIgnoreCase(repo.getName())) {
+            return false;
+        }
+        String owner = repo.getOwner() != null ? repo.getOwner().getUsername() : null;
+        if(owner == null && repo.getFullName() != null && repo.getFullName().indexOf('/') > 0) {
+            owner = repo.getFullName().substring(0, repo.getFullName().indexOf('/'));
+        }
+        return owner != null && owner.equalsIgnoreCase(invalidation.owner);
+    }
+
+    /**
+     * Runs a sync as background work on the api's {@link Dispatcher}
+     * so it does not hold up interactive calls
+     * @return a future that completes with the result of {@link #sync()}
+     */
+    public Future<Boolean> syncInBackground() {
+        return api.getDispatcher().submit(Dispatcher.Priority.BACKGROUND, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return sync();
+            }
+        });
+    }
+
+    /**
+     * Returns the repositories in the current snapshot
+     * @return
+     */
+    public synchronized List<Repository> getRepositories() {
+        return new ArrayList<>(repos.values());
+    }
+
+    /**
+     * Returns a repository from the current snapshot
+     * @param id the id of the repository
+     * @return the repository or null if it is not in the snapshot
+     */
+    public synchronized Repository getRepository(int id) {
+        return repos.get(id);
+    }
+
+    /**
+     * Discards the snapshot so the next sync reports every repository as added
+     */
+    public synchronized void reset() {
+        repos.clear();
+        hashes.clear();
+        ids.clear();
+        listingHash = null;
+        etag = null;
+        lastModified = null;
+    }
+
+    /**
+     * Returns the json form of the snapshot so it can be persisted between sessions
+     * @return
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        JSONArray items = new JSONArray();
+        for(Map.Entry<Integer, Repository> entry:repos.entrySet()) {
+            JSONObject item = new JSONObject();
+            Util.addToJSON(item, "repo", entry.getValue().toJSON());
+            Util.addToJSON(item, "hash", hashes.get(entry.getKey()));
+            items.put(item);
+        }
+        Util.addToJSON(json, "repos", items);
+        Util.addToJSON(json, "hash", listingHash);
+        Util.addToJSON(json, "etag", etag);
+        Util.addToJSON(json, "last_modified", lastModified);
+        return json;
+    }
+
+    /**
+     * Replaces the snapshot with one previously returned by {@link #toJSON()}
+     * @param json
+     */
+    public synchronized void load(JSONObject json) {
+        reset();
+        if(json == null) {
+            return;
+        }
+        JSONArray items = json.optJSONArray("repos");
+        if(items != null) {
+            for(int i = 0; i < items.length(); i ++) {
+                JSONObject item = items.optJSONObject(i);
+                if(item == null) {
+                    continue;
+                }
+                Repository repo = Repository.fromJSON(item.optJSONObject("repo"));
+                if(repo != null) {
+                    String repoHash = (String)Util.getFromJSON(item, "hash", null);
+                    repos.put(repo.getId(), repo);
+                    hashes.put(repo.getId(), repoHash);
+                    if(repoHash != null) {
+                        ids.put(repoHash, repo.getId());
+                    }
+                }
+            }
+        }
+        listingHash = (String)Util.getFromJSON(json, "hash", null);
+        etag = (String)Util.getFromJSON(json, "etag", null);
+        lastModified = (String)Util.getFromJSON(json, "last_modified", null);
+    }
+
+    /**
+     * Splits a json array into the raw text of each object in it without parsing the objects.
+     * Elements that are not objects are skipped
+     * @param json the json array
+     * @return
+     * @throws JSONException if the content is not a json array
+     */
+    static List<String> splitObjects(String json) throws JSONException {
+        List<String> items = new ArrayList<>();
+        int i = skipWhitespace(json, 0);
+        if(i >= json.length() || json.charAt(i) != '[') {
+            throw new JSONException("Expected a JSON array");
+        }
+        int depth = 0;
+        int start = -1;
+        boolean inString = false;
+        for(; i < json.length(); i ++) {
+            char c = json.charAt(i);
+            if(inString) {
+                if(c == '\\') {
+                    i ++;
+                } else if(c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if(c == '"') {
+                inString = true;
+            } else if(c == '{' || c == '[') {
+                if(depth == 1 && c == '{') {
+                    start = i;
+                }
+                depth ++;
+            } else if(c == '}' || c == ']') {
+                depth --;
+                if(depth == 1 && c == '}' && start >= 0) {
+                    items.add(json.substring(start, i + 1));
+                    start = -1;
+                } else if(depth == 0) {
+                    if(skipWhitespace(json, i + 1) != json.length()) {
+                        throw new JSONException("Unexpected content after the JSON array");
+                    }
+                    return items;
+                } else if(depth < 0) {
+                    break;
+                }
+            }
+        }
+        throw new JSONException("Unterminated JSON array");
+    }
+
+    private static int skipWhitespace(String content, int index) {
+        while(index < content.length() && Character.isWhitespace(content.charAt(index))) {
+            index ++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the content
+     * @param content
+     * @return
+     */
+    private static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(content.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for(byte b:bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // every platform is required to support SHA-1 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Receives the changes detected during a sync
+     */
+    public interface Listener {
+        void onRepositoryAdded(Repository repo);
+        void onRepositoryModified(Repository oldRepo, Repository newRepo);
+        void onRepositoryRemoved(Repository repo);
+    }
+}
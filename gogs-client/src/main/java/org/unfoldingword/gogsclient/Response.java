@@ -1,5 +1,11 @@
 package org.unfoldingword.gogsclient;
 
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
 /**
  * Holds the response from the api
  */
@@ -7,15 +13,161 @@ public class Response {
     public final int code;
     public final String data;
     public final Exception exception;
+    public final Map<String, List<String>> headers;
+    private final ErrorType error;
+    private volatile Exception parseException = null;
+    volatile String endpoint = null;
+    volatile Timing timing = null;
 
     public Response(int responseCode, String responseData, Exception exception) {
+        this(responseCode, responseData, exception, null);
+    }
+
+    public Response(int responseCode, String responseData, Exception exception, Map<String, List<String>> headers) {
         this.code = responseCode;
         this.data = responseData;
         this.exception = exception;
+        this.headers = headers != null ? headers : Collections.<String, List<String>>emptyMap();
+        this.error = classify(responseCode, exception);
+    }
+
+    /**
+     * Determines the kind of failure from the status code and exception.
+     * Successful responses are not classified so they cost nothing extra
+     * @param code
+     * @param exception
+     * @return the error or null if the request succeeded
+     */
+    private static ErrorType classify(int code, Exception exception) {
+        if(exception instanceof ResponseTooLargeException) {
+            return ErrorType.TOO_LARGE;
+        }
+        if(code == -1 || (exception != null && code < 400)) {
+            if(exception instanceof CancellationException) {
+                return ErrorType.CANCELLED;
+            } else if(exception instanceof SocketTimeoutException) {
+                return ErrorType.TIMEOUT;
+            }
+            return ErrorType.NETWORK;
+        }
+        if(code == 401 || code == 403) {
+            return ErrorType.AUTH;
+        } else if(code == 404) {
+            return ErrorType.NOT_FOUND;
+        } else if(code == 409 || code == 422) {
+            // gogs reports existing users and repositories as 422
+            return ErrorType.CONFLICT;
+        } else if(code >= 500) {
+            return ErrorType.SERVER;
+        } else if(code >= 400) {
+            return ErrorType.REQUEST;
+        }
+        return null;
+    }
+
+    /**
+     * Returns why the request failed
+     * @return the error or null if the request succeeded and its data could be parsed
+     */
+    public ErrorType getError() {
+        if(error == null && parseException != null) {
+            return ErrorType.PARSE;
+        }
+        return error;
+    }
+
+    /**
+     * Checks if the request failed
+     * @return
+     */
+    public boolean isError() {
+        return getError() != null;
+    }
+
+    /**
+     * Returns the exception that caused the error.
+     * This is the exception thrown while parsing the data if the request itself succeeded
+     * @return the exception or null
+     */
+    public Exception getErrorCause() {
+        return exception != null ? exception : parseException;
+    }
+
+    /**
+     * Returns the api endpoint that produced this response e.g. "/repos/{*}"
+     * @return the endpoint template or null if the response did not come from the api
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Records that the response data could not be parsed
+     * @param e
+     */
+    void parseFailed(Exception e) {
+        this.parseException = e;
+    }
+
+    /**
+     * Returns the first value of a response header
+     * @param name the case insensitive header name
+     * @return the header value or null if it was not returned
+     */
+    public String getHeader(String name) {
+        return findHeader(headers, name);
+    }
+
+    /**
+     * Returns the first value of a header
+     * @param headers
+     * @param name the case insensitive header name
+     * @return the header value or null if it is not present
+     */
+    static String findHeader(Map<String, List<String>> headers, String name) {
+        if(headers != null) {
+            for(Map.Entry<String, List<String>> entry:headers.entrySet()) {
+                if(entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)
+                        && !entry.getValue().isEmpty()) {
+                    return entry.getValue().get(0);
+                }
+            }
+        }
+        return null;
     }
 
     @Override
     public String toString() {
         return this.data;
     }
+
+    /**
+     * Where the time of a call went, used to describe slow calls
+     */
+    static class Timing {
+        final long startedAt = System.currentTimeMillis();
+        String method;
+        long connectMillis = -1;
+        long firstByteMillis;
+        long downloadMillis;
+        long parseMillis;
+        long bytesSent;
+        long bytesReceived;
+        /**
+         * The bytes the calling thread had allocated when the call started or -1 if not measured
+         */
+        long allocatedAtStart = -1;
+        /**
+         * The entry in the slow call log once the call has been recorded
+         */
+        volatile SlowCallLog.Entry slowCall;
+
+        Timing(String method) {
+            this.method = method;
+        }
+
+        long getTotalMillis() {
+            return firstByteMillis + downloadMillis + parseMillis;
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.IOException;
+
+/**
+ * Signals that a response body exceeded the size allowed for its endpoint and the transfer was abandoned
+ */
+public class ResponseTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long limit;
+
+    /**
+     * @param limit the maximum number of bytes that were allowed
+     */
+    public ResponseTooLargeException(long limit) {
+        super("The response body exceeded " + limit + " bytes");
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the maximum number of decoded bytes that were allowed
+     * @return
+     */
+    public long getLimit() {
+        return limit;
+    }
+}
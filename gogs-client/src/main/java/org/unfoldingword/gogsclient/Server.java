@@ -0,0 +1,72 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * A server the api client can send requests to.
+ * Tracks an exponentially weighted moving average of the response latency and backs off after connection failures.
+ */
+class Server {
+
+    private static final double ALPHA = 0.3;
+    private static final long MIN_BACKOFF = 5000;
+    private static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+    final String url;
+    final boolean primary;
+    private double latency = 0;
+    private boolean sampled = false;
+    private int failures = 0;
+    private long downUntil = 0;
+
+    /**
+     * @param url the api url without a trailing slash
+     * @param primary true if this server accepts writes
+     */
+    Server(String url, boolean primary) {
+        this.url = url;
+        this.primary = primary;
+    }
+
+    /**
+     * Records a request that received a response
+     * @param millis the time it took to receive the response
+     */
+    synchronized void recordSuccess(long millis) {
+        latency = sampled ? ALPHA * millis + (1 - ALPHA) * latency : millis;
+        sampled = true;
+        failures = 0;
+        downUntil = 0;
+    }
+
+    /**
+     * Records a request that could not reach the server
+     */
+    synchronized void recordFailure() {
+        failures ++;
+        long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures - 1, 16));
+        downUntil = System.currentTimeMillis() + backoff;
+    }
+
+    /**
+     * Checks if the server is currently considered reachable
+     * @return
+     */
+    synchronized boolean isHealthy() {
+        return downUntil <= System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the average latency. Servers that have not been measured yet report 0 so they get tried
+     * @return
+     */
+    synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns when the server may be tried again after a failure
+     * @return
+     */
+    synchronized long getDownUntil() {
+        return downUntil;
+    }
+}
@@ -0,0 +1,237 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent slow calls made by a client so there is evidence to look at when users report that
+ * something is slow.
+ *
+ * A call is recorded when it takes at least the time threshold or transfers at least the size threshold.
+ * Each entry breaks the call down into the time spent connecting, waiting for the first byte, downloading and
+ * parsing the response. Calls that are not slow only cost a comparison, nothing is allocated for them.
+ */
+public class SlowCallLog {
+
+    private final Entry[] entries;
+    private int next = 0;
+    private int count = 0;
+    private volatile long threshold = 2000;
+    private volatile long sizeThreshold = 0;
+
+    /**
+     * @param capacity the number of entries to keep
+     */
+    SlowCallLog(int capacity) {
+        this.entries = new Entry[Math.max(1, capacity)];
+    }
+
+    /**
+     * Sets how long a call must take to be recorded
+     * @param millis the time in milliseconds or a negative number to stop recording slow calls
+     */
+    public void setThreshold(long millis) {
+        this.threshold = millis;
+    }
+
+    /**
+     * Sets how much data a call must transfer to be recorded regardless of how long it took
+     * @param bytes the number of bytes sent and received or 0 to not record calls by size
+     */
+    public void setSizeThreshold(long bytes) {
+        this.sizeThreshold = bytes;
+    }
+
+    /**
+     * Returns the recorded calls from oldest to newest
+     * @return
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>(count);
+        for(int i = 0; i < count; i ++) {
+            list.add(entries[(next - count + i + entries.length) % entries.length]);
+        }
+        return list;
+    }
+
+    /**
+     * Discards the recorded calls
+     */
+    public synchronized void clear() {
+        for(int i = 0; i < entries.length; i ++) {
+            entries[i] = null;
+        }
+        next = 0;
+        count = 0;
+    }
+
+    /**
+     * Writes the recorded calls one per line from oldest to newest
+     * @param out
+     * @throws IOException
+     */
+    public void dump(Appendable out) throws IOException {
+        for(Entry entry:getEntries()) {
+            out.append(entry.toString()).append('\n');
+        }
+    }
+
+    /**
+     * Checks if allocations should be measured for a call
+     * @return
+     */
+    boolean isMeasuringAllocations() {
+        return (threshold >= 0 || sizeThreshold > 0) && AllocationCounter.isSupported();
+    }
+
+    /**
+     * Records the call if the transfer was slow or large
+     * @param response
+     */
+    void onResponse(Response response) {
+        if(isSlow(response)) {
+            record(response);
+        }
+    }
+
+    /**
+     * Adds the parse time to the call and records the call if it is now slow
+     * @param response
+     * @param millis the time spent parsing
+     */
+    void onParsed(Response response, long millis) {
+        Response.Timing timing = response.timing;
+        if(timing == null) {
+            return;
+        }
+        timing.parseMillis += millis;
+        Entry entry = timing.slowCall;
+        if(entry != null) {
+            entry.parseMillis = timing.parseMillis;
+            entry.allocatedBytes = allocatedSince(timing);
+        } else if(isSlow(response)) {
+            record(response);
+        }
+    }
+
+    private boolean isSlow(Response response) {
+        Response.Timing timing = response.timing;
+        if(timing == null) {
+            return false;
+        }
+        long threshold = this.threshold;
+        long sizeThreshold = this.sizeThreshold;
+        return (threshold >= 0 && timing.getTotalMillis() >= threshold)
+                || (sizeThreshold > 0 && timing.bytesSent + timing.bytesReceived >= sizeThreshold);
+    }
+
+    private void record(Response response) {
+        Response.Timing timing = response.timing;
+        Entry entry = new Entry(response.getEndpoint(), timing.method, response.code, response.getError(), timing);
+        entry.allocatedBytes = allocatedSince(timing);
+        timing.slowCall = entry;
+        synchronized (this) {
+            entries[next] = entry;
+            next = (next + 1) % entries.length;
+            count = Math.min(entries.length, count + 1);
+        }
+    }
+
+    private static long allocatedSince(Response.Timing timing) {
+        if(timing.allocatedAtStart < 0) {
+            return -1;
+        }
+        long now = AllocationCounter.current();
+        return now >= 0 ? now - timing.allocatedAtStart : -1;
+    }
+
+    /**
+     * A slow call
+     */
+    public static class Entry {
+        /**
+         * The endpoint template e.g. "/user/repos"
+         */
+        public final String endpoint;
+        public final String method;
+        /**
+         * The status code or -1 if no response was received
+         */
+        public final int code;
+        /**
+         * Why the call failed or null if it succeeded
+         */
+        public final ErrorType error;
+        /**
+         * When the call started in milliseconds since the epoch
+         */
+        public final long startedAt;
+        /**
+         * The time spent opening the connection or -1 if the transport does not report it
+         */
+        public final long connectMillis;
+        /**
+         * The time from starting the call until the response headers arrived, including the connection
+         */
+        public final long firstByteMillis;
+        /**
+         * The time spent reading the response body
+         */
+        public final long downloadMillis;
+        public final long bytesSent;
+        /**
+         * The number of bytes received before decompression
+         */
+        public final long bytesReceived;
+        volatile long parseMillis;
+        volatile long allocatedBytes;
+
+        Entry(String endpoint, String method, int code, ErrorType error, Response.Timing timing) {
+            this.endpoint = endpoint;
+            this.method = method;
+            this.code = code;
+            this.error = error;
+            this.startedAt = timing.startedAt;
+            this.connectMillis = timing.connectMillis;
+            this.firstByteMillis = timing.firstByteMillis;
+            this.downloadMillis = timing.downloadMillis;
+            this.bytesSent = timing.bytesSent;
+            this.bytesReceived = timing.bytesReceived;
+            this.parseMillis = timing.parseMillis;
+        }
+
+        /**
+         * Returns the time spent parsing the response
+         * @return
+         */
+        public long getParseMillis() {
+            return parseMillis;
+        }
+
+        /**
+         * Returns the number of bytes allocated by the calling thread during the call
+         * @return the number of bytes or -1 if the platform does not report allocations
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Returns the time the whole call took
+         * @return
+         */
+        public long getTotalMillis() {
+            return firstByteMillis + downloadMillis + parseMillis;
+        }
+
+        @Override
+        public String toString() {
+            return startedAt + " " + method + " " + endpoint + " " + code + (error != null ? " " + error : "")
+                    + " total=" + getTotalMillis() + "ms connect=" + (connectMillis >= 0 ? connectMillis + "ms" : "?")
+                    + " firstByte=" + firstByteMillis + "ms download=" + downloadMillis + "ms parse=" + parseMillis + "ms"
+                    + " sent=" + bytesSent + "B received=" + bytesReceived + "B"
+                    + " allocated=" + (allocatedBytes >= 0 ? allocatedBytes + "B" : "?");
+        }
+    }
+}
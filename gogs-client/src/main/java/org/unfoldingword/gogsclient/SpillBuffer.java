@@ -0,0 +1,104 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Buffers a response body in memory until it grows past a threshold and then moves it to a temp file.
+ * Either way the body can be read back as a stream so large listings are parsed without holding the
+ * whole body in memory. The file must be released with {@link #delete()}
+ */
+class SpillBuffer implements GogsAPI.BodyReader {
+
+    private final long threshold;
+    private final File directory;
+    private final long limit;
+    private String data = null;
+    private File file = null;
+
+    /**
+     * @param threshold the number of bytes kept in memory before spilling to a file
+     * @param directory where the temp file is created. If null the system temp directory is used
+     * @param limit the maximum size of the body
+     */
+    SpillBuffer(long threshold, File directory, long limit) {
+        this.threshold = threshold;
+        this.directory = directory;
+        this.limit = limit;
+    }
+
+    @Override
+    public String read(InputStream body) throws IOException {
+        InputStream in = new BoundedInputStream(body, this.limit);
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        OutputStream out = memory;
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read;
+        try {
+            try {
+                while((read = in.read(buffer)) != -1) {
+                    total += read;
+                    if(this.file == null && total > this.threshold) {
+                        this.file = File.createTempFile("gogs-", ".json", this.directory);
+                        out = new BufferedOutputStream(new FileOutputStream(this.file), 8192);
+                        memory.writeTo(out);
+                        memory = null;
+                    }
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                if(out != memory) {
+                    out.close();
+                }
+            }
+        } catch (IOException e) {
+            delete();
+            throw e;
+        }
+        if(this.file == null) {
+            this.data = memory.toString("UTF-8");
+        }
+        return this.data;
+    }
+
+    /**
+     * Checks if a body was received
+     * @return
+     */
+    boolean hasBody() {
+        return this.data != null || this.file != null;
+    }
+
+    /**
+     * Opens the buffered body
+     * @return
+     * @throws IOException
+     */
+    Reader openReader() throws IOException {
+        if(this.file != null) {
+            return new InputStreamReader(new BufferedInputStream(new FileInputStream(this.file), 8192), "UTF-8");
+        }
+        return new StringReader(this.data != null ? this.data : "");
+    }
+
+    /**
+     * Removes the temp file if the body was spilled
+     */
+    void delete() {
+        if(this.file != null) {
+            this.file.delete();
+            this.file = null;
+        }
+    }
+}
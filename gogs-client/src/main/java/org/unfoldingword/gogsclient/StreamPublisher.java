@@ -0,0 +1,401 @@
+package org.unfoldingword.gogsclient;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Publishes the models of a listing endpoint as they are decoded from the response.
+ *
+ * Each subscription runs on the api's {@link Dispatcher}. Items are emitted as soon as they are decoded while the
+ * subscriber has demand. Once the demand runs out the rest of the page is decoded into a buffer and the connection
+ * released, so a subscriber that stops requesting holds no connection, dispatcher slot or admission to the server
+ * while it waits. Paged endpoints request the next page once the current one has been emitted and more items are
+ * wanted. Cancelling aborts the transfer in progress.
+ *
+ * Servers may cap the page size below the one asked for, so paging only ends on a page that is empty or shorter
+ * than the largest page seen.
+ */
+class StreamPublisher<T> implements Publisher<T> {
+
+    private final GogsAPI api;
+    private final User user;
+    private final Pages pages;
+    private final int pageSize;
+    private final String arrayField;
+    private final Decoder<T> decoder;
+
+    /**
+     * Creates a new publisher
+     * @param api
+     * @param user the user authenticating the requests. May be null
+     * @param pages builds the route of each page
+     * @param pageSize the number of items in a full page or 0 if the endpoint is not paged
+     * @param arrayField the field holding the items or null if the response is the array itself
+     * @param decoder converts each item to a model
+     */
+    StreamPublisher(GogsAPI api, User user, Pages pages, int pageSize, String arrayField, Decoder<T> decoder) {
+        this.api = api;
+        this.user = user;
+        this.pages = pages;
+        this.pageSize = pageSize;
+        this.arrayField = arrayField;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if(subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        Emission emission = new Emission(subscriber);
+        subscriber.onSubscribe(emission);
+    }
+
+    /**
+     * Reads a json object into its org.json form so the models can parse it.
+     * Whole numbers become Integer or Long as they do when parsing a string
+     * @param reader
+     * @return
+     * @throws IOException
+     * @throws JSONException
+     */
+    static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject json = new JSONObject();
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            json.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return json;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch(reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while(reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            case NUMBER:
+                String number = reader.nextString();
+                if(number.indexOf('.') != -1 || number.indexOf('e') != -1 || number.indexOf('E') != -1) {
+                    return Double.valueOf(number);
+                }
+                long value = Long.parseLong(number);
+                if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int)value;
+                }
+                return value;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    /**
+     * Moves the reader to the start of the array of items
+     * @param reader
+     * @param arrayField the field holding the items or null if the body is the array itself
+     * @return false if the body has no items or reports that the call was not ok
+     * @throws IOException
+     */
+    static boolean seekItems(JsonReader reader, String arrayField) throws IOException {
+        if(arrayField == null) {
+            return true;
+        }
+        reader.beginObject();
+        while(reader.hasNext()) {
+            String name = reader.nextName();
+            if(name.equals(arrayField) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                return true;
+            } else if(name.equals("ok") && reader.peek() == JsonToken.BOOLEAN) {
+                if(!reader.nextBoolean()) {
+                    return false;
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the route of a page
+     */
+    interface Pages {
+        /**
+         * @param page the page number starting at 1
+         * @return
+         */
+        Endpoint.Route route(int page);
+    }
+
+    /**
+     * Converts a json item to a model
+     */
+    interface Decoder<T> {
+        /**
+         * @param json
+         * @return the model or null if the item should be skipped
+         */
+        T decode(JSONObject json);
+    }
+
+    /**
+     * The state of a single subscription.
+     * At most one drain runs at a time and it returns to the dispatcher whenever the subscriber has no demand
+     */
+    private class Emission implements Subscription, Callable<Void> {
+        private final Subscriber<? super T> subscriber;
+        private final Cancellation cancellation;
+        private final ArrayDeque<T> buffer = new ArrayDeque<>();
+        private final Set<Integer> seen = pageSize > 0 ? new HashSet<Integer>() : null;
+        private long demand = 0;
+        private int page = 1;
+        private int largestPage = 0;
+        private boolean lastPage = false;
+        private boolean draining = false;
+        private boolean cancelled = false;
+        private IllegalArgumentException illegalRequest = null;
+
+        Emission(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            // cancelling the subscribing thread's calls also cancels the subscription
+            Cancellation parent = Cancellation.current();
+            this.cancellation = parent != null ? parent.child(Long.MAX_VALUE) : new Cancellation();
+        }
+
+        @Override
+        public void request(long n) {
+            boolean start;
+            boolean illegal = n <= 0;
+            synchronized (this) {
+                if(cancelled) {
+                    return;
+                }
+                if(illegal) {
+                    illegalRequest = new IllegalArgumentException("Only a positive number of items may be requested");
+                } else {
+                    // saturate instead of overflowing
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                // a running drain picks up the new demand itself
+                start = !draining;
+                draining = true;
+            }
+            if(illegal) {
+                cancellation.cancel();
+            }
+            if(start) {
+                try {
+                    // always queued so a request made on a dispatcher thread does not run the drain in place
+                    api.getDispatcher().enqueue(Dispatcher.Priority.NORMAL, this);
+                } catch (IllegalStateException e) {
+                    // the dispatcher was shut down
+                    finish(e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if(cancelled) {
+                    return;
+                }
+                cancelled = true;
+            }
+            cancellation.cancel();
+        }
+
+        @Override
+        public Void call() {
+            Cancellation.Scope scope = cancellation.enter();
+            try {
+                drain();
+            } finally {
+                scope.close();
+            }
+            return null;
+        }
+
+        /**
+         * Emits buffered items while there is demand, fetching the next page once the buffer is empty
+         */
+        private void drain() {
+            while(true) {
+                emitBuffered();
+                boolean fetch;
+                synchronized (this) {
+                    if(cancelled || illegalRequest != null || (buffer.isEmpty() && lastPage)) {
+                        break;
+                    }
+                    if(demand == 0) {
+                        // wait for the next request without holding the dispatcher
+                        draining = false;
+                        return;
+                    }
+                    fetch = buffer.isEmpty();
+                }
+                if(fetch && !fetchPage()) {
+                    return;
+                }
+            }
+            finish(null);
+        }
+
+        /**
+         * Emits buffered items in order while there is demand
+         */
+        private void emitBuffered() {
+            while(true) {
+                T item;
+                synchronized (this) {
+                    if(cancelled || illegalRequest != null || demand == 0 || buffer.isEmpty()) {
+                        return;
+                    }
+                    item = buffer.poll();
+                    demand --;
+                }
+                emit(item);
+            }
+        }
+
+        /**
+         * Reads the next page, emitting the items that are wanted and buffering the rest
+         * @return false if the request failed and the subscriber has been told
+         */
+        private boolean fetchPage() {
+            PageReader reader = new PageReader();
+            Response response = api.stream(pages.route(page), user, reader);
+            if(isStopped()) {
+                return true;
+            }
+            if(reader.parseError != null) {
+                api.parseFailed(response, reader.parseError);
+            }
+            if(response.isError()) {
+                finish(new ApiException(response));
+                return false;
+            }
+            synchronized (this) {
+                // a page shorter than another one cannot have been capped by the server.
+                // Servers that ignore paging keep returning the first page
+                if(pageSize <= 0 || reader.count == 0 || reader.count < largestPage || reader.repeated) {
+                    lastPage = true;
+                } else {
+                    largestPage = reader.count;
+                    page ++;
+                }
+            }
+            return true;
+        }
+
+        private synchronized boolean isStopped() {
+            return cancelled || illegalRequest != null;
+        }
+
+        private void emit(T item) {
+            try {
+                subscriber.onNext(item);
+            } catch (RuntimeException e) {
+                // a subscriber that throws is treated as having cancelled
+                cancel();
+            }
+        }
+
+        /**
+         * Sends the terminal signal unless the subscriber cancelled
+         * @param error the failure or null if the listing completed
+         */
+        private void finish(Throwable error) {
+            synchronized (this) {
+                if(cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if(illegalRequest != null) {
+                    error = illegalRequest;
+                }
+            }
+            // the listing is over so the parent need not keep the child
+            cancellation.close();
+            if(error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        /**
+         * Decodes the items of one page, emitting them while there is demand.
+         * The rest of the page is buffered so the connection can be released while the subscriber waits
+         */
+        private class PageReader implements GogsAPI.BodyReader {
+            int count = 0;
+            boolean repeated = false;
+            Exception parseError = null;
+
+            @Override
+            public String read(InputStream body) throws IOException {
+                JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+                try {
+                    if(seekItems(reader, arrayField)) {
+                        readItems(reader);
+                    }
+                } catch (MalformedJsonException | IllegalStateException | JSONException | NumberFormatException e) {
+                    parseError = e;
+                }
+                // the items have been consumed so there is nothing to keep
+                return null;
+            }
+
+            private void readItems(JsonReader reader) throws IOException, JSONException {
+                reader.beginArray();
+                while(reader.hasNext()) {
+                    if(isStopped()) {
+                        // the rest of the transfer is abandoned
+                        return;
+                    }
+                    JSONObject json = readObject(reader);
+                    count ++;
+                    if(seen != null && !seen.add(json.optInt("id", 0))) {
+                        repeated = true;
+                        continue;
+                    }
+                    T item = decoder.decode(json);
+                    if(item != null) {
+                        synchronized (Emission.this) {
+                            buffer.add(item);
+                        }
+                        emitBuffered();
+                    }
+                }
+                reader.endArray();
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * Receives the models emitted by a {@link Publisher}.
+ * Signals are delivered one at a time on a background thread
+ */
+public interface Subscriber<T> {
+
+    /**
+     * Called once before any other signal
+     * @param subscription used to request items or cancel
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called for each requested item
+     * @param item
+     */
+    void onNext(T item);
+
+    /**
+     * Called once if the publisher fails. No further signals follow
+     * @param throwable an {@link ApiException} if the api returned an error
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called once after the last item. No further signals follow
+     */
+    void onComplete();
+}
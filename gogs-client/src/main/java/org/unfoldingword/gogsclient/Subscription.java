@@ -0,0 +1,19 @@
+package org.unfoldingword.gogsclient;
+
+/**
+ * Links a {@link Subscriber} to a {@link Publisher}
+ */
+public interface Subscription {
+
+    /**
+     * Adds to the number of items the subscriber is ready to receive.
+     * The publisher does not request further pages while there is no outstanding demand
+     * @param n a positive number of items
+     */
+    void request(long n);
+
+    /**
+     * Stops emitting and aborts any transfer in progress
+     */
+    void cancel();
+}
@@ -10,6 +10,7 @@ public class Token {
     private String name = null;
     private String sha1 = null;
     private String[] scopes = new String[]{"all"};
+    private volatile EncodedBody encodedBody = null;
 
     private Token() {}
 
@@ -56,6 +57,23 @@ public class Token {
         return json;
     }
 
+    /**
+     * Converts the token to the request body that creates it.
+     * The encoded bytes are reused until the scopes array is modified
+     * @return
+     */
+    JSONBody toJSONBody() {
+        String[] scopes = this.scopes != null ? this.scopes.clone() : null;
+        EncodedBody encoded = this.encodedBody;
+        if(encoded == null || !encoded.matches((Object)scopes)) {
+            encoded = new EncodedBody(new JSONBody()
+                    .put("name", this.name)
+                    .put("scopes", scopes), (Object)scopes);
+            this.encodedBody = encoded;
+        }
+        return encoded.toJSONBody();
+    }
+
     @Override
     public String toString() {
         return this.sha1;
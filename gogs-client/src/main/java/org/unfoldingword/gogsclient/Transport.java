@@ -0,0 +1,134 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Performs the http exchanges of an api client.
+ *
+ * The client prepares the request, handles compression, cancellation, failover and records the {@link Metrics}
+ * so every transport behaves the same and reports the same statistics. The default transport uses
+ * HttpURLConnection. See {@link OkHttpTransport} for one that multiplexes requests over HTTP/2.
+ */
+public interface Transport {
+
+    /**
+     * Prepares an exchange without performing any network I/O so it can be aborted while connecting
+     * @param request
+     * @return
+     * @throws IOException
+     */
+    Exchange newExchange(Request request) throws IOException;
+
+    /**
+     * A request ready to be sent
+     */
+    class Request {
+        /**
+         * The absolute url
+         */
+        public final String url;
+        /**
+         * The upper case request method
+         */
+        public final String method;
+        /**
+         * The request headers including Authorization and Accept-Encoding
+         */
+        public final Map<String, String> headers;
+        /**
+         * The connection timeout in milliseconds. 0 waits forever
+         */
+        public final int connectTimeout;
+        /**
+         * The read timeout in milliseconds. 0 waits forever
+         */
+        public final int readTimeout;
+        private final JSONBody body;
+
+        Request(String url, String method, Map<String, String> headers, JSONBody body, int connectTimeout, int readTimeout) {
+            this.url = url;
+            this.method = method;
+            this.headers = headers;
+            this.body = body;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+
+        /**
+         * Checks if the request has a body
+         * @return
+         */
+        public boolean hasBody() {
+            return body != null;
+        }
+
+        /**
+         * Returns the number of bytes in the encoded body
+         * @return the length or -1 if there is no body
+         */
+        public int getBodyLength() {
+            return body != null ? body.length() : -1;
+        }
+
+        /**
+         * Writes the encoded body
+         * @param os
+         * @throws IOException
+         */
+        public void writeBody(OutputStream os) throws IOException {
+            if(body != null) {
+                body.writeTo(os);
+            }
+        }
+    }
+
+    /**
+     * A single request and response
+     */
+    interface Exchange {
+        /**
+         * Sends the request and waits for the response headers
+         * @return the response code
+         * @throws IOException
+         */
+        int execute() throws IOException;
+
+        /**
+         * Returns the response headers
+         * @return
+         */
+        Map<String, List<String>> getHeaders();
+
+        /**
+         * Opens the response body as it was sent over the wire, without decompressing it
+         * @return
+         * @throws IOException if the response code is an error like HttpURLConnection does
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Aborts the exchange from another thread
+         */
+        void abort();
+
+        /**
+         * Releases the exchange once the body has been read or is not needed
+         */
+        void close();
+    }
+
+    /**
+     * An exchange that can tell how long it took to connect to the server
+     */
+    interface TimedExchange extends Exchange {
+        /**
+         * Returns the time spent connecting, including the TLS handshake
+         * @return the time in milliseconds or -1 if the exchange has not connected
+         */
+        long getConnectMillis();
+    }
+}
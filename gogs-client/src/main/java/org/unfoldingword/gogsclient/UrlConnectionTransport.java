@@ -0,0 +1,105 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * The default transport built on HttpURLConnection.
+ * Connections are pooled by the platform and speak HTTP/1.1
+ */
+class UrlConnectionTransport implements Transport {
+
+    private volatile SSLSocketFactory sslSocketFactory = null;
+
+    /**
+     * Sets the socket factory used by every https connection
+     * @param factory the factory or null to use the platform default
+     */
+    void setSSLSocketFactory(SSLSocketFactory factory) {
+        this.sslSocketFactory = factory;
+    }
+
+    @Override
+    public Exchange newExchange(final Request request) throws IOException {
+        final HttpURLConnection conn = openConnection(new URL(request.url));
+        return new TimedExchange() {
+            private long connectMillis = -1;
+
+            @Override
+            public int execute() throws IOException {
+                for(Map.Entry<String, String> header:request.headers.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+                conn.setReadTimeout(request.readTimeout);
+                conn.setConnectTimeout(request.connectTimeout);
+                conn.setRequestMethod(request.method);
+                if(request.hasBody()) {
+                    conn.setDoOutput(true);
+                    // the body is already encoded so the length is known up front
+                    conn.setFixedLengthStreamingMode(request.getBodyLength());
+                }
+                // connect separately so the time spent connecting can be told apart from waiting for the server
+                long connecting = System.currentTimeMillis();
+                conn.connect();
+                connectMillis = System.currentTimeMillis() - connecting;
+                if(request.hasBody()) {
+                    OutputStream os = conn.getOutputStream();
+                    request.writeBody(os);
+                    os.close();
+                }
+                return conn.getResponseCode();
+            }
+
+            @Override
+            public long getConnectMillis() {
+                return connectMillis;
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return conn.getHeaderFields();
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                return conn.getInputStream();
+            }
+
+            @Override
+            public void abort() {
+                conn.disconnect();
+            }
+
+            @Override
+            public void close() {
+                // the connection stays in the platform pool
+            }
+        };
+    }
+
+    /**
+     * Opens a connection using the configured socket factory
+     * @param url
+     * @return
+     * @throws IOException
+     */
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        if(url.getProtocol().equals("https")) {
+            HttpsURLConnection conn = (HttpsURLConnection)url.openConnection();
+            if(this.sslSocketFactory != null) {
+                conn.setSSLSocketFactory(this.sslSocketFactory);
+            }
+            return conn;
+        } else {
+            return (HttpURLConnection)url.openConnection();
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class User {
     private boolean allowImportLocal = false;
     private boolean allowGitHook = false;
     private int id = 0;
+    private volatile EncodedBody encodedBody = null;
 
     private User() {}
 
@@ -102,6 +103,42 @@ public class User {
         return json;
     }
 
+    /**
+     * Converts the user to a request body encoded directly as UTF-8.
+     * The encoded bytes are reused until one of the public fields changes
+     * @return
+     */
+    JSONBody toJSONBody() {
+        String fullName = this.fullName;
+        String email = this.email;
+        String password = this.password;
+        EncodedBody encoded = this.encodedBody;
+        if(encoded == null || !encoded.matches(fullName, email, password)) {
+            encoded = new EncodedBody(encode(fullName, email, password), fullName, email, password);
+            this.encodedBody = encoded;
+        }
+        return encoded.toJSONBody();
+    }
+
+    private JSONBody encode(String fullName, String email, String password) {
+        JSONBody body = new JSONBody();
+        if(this.id > 0) {
+            body.put("id", this.id);
+        }
+        return body.put("full_name", fullName)
+                .put("email", email)
+                .put("username", this.username)
+                .put("password", password)
+                .put("login_name", this.loginName)
+                .put("website", this.website)
+                .put("location", this.location)
+                .put("avatar_url", this.avatarUrl)
+                .put("active", this.active)
+                .put("admin", this.admin)
+                .put("allow_git_hook", this.allowGitHook)
+                .put("allow_import_local", this.allowImportLocal);
+    }
+
     /**
      * Returns the id of the gogs user
      * @return
@@ -0,0 +1,507 @@
+package org.unfoldingword.gogsclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A local cache of users indexed by username and full name in a suffix trie.
+ *
+ * Like the server's user search a query matches users whose username or full name contains it, so every suffix
+ * of those names is indexed and a query is answered by the users below its node. The api is only consulted when
+ * the local results are insufficient. When the server has returned every user matching a query, any longer query
+ * containing it is answered locally since its matches are necessarily among them.
+ *
+ * The trie is not compacted: every node holds a single character. Chains of single children are not merged
+ * since nearly every node of a suffix trie holds users, which would have to be split out of a merged edge anyway.
+ *
+ * Entries become stale after the ttl and are then ignored until they are fetched again. The trie is limited to
+ * a number of nodes and the users fetched longest ago are dropped to stay within it.
+ * Use a single directory per authenticating user since the email field depends on who made the request.
+ */
+public class UserDirectory {
+
+    /**
+     * The default maximum number of trie nodes, roughly a few megabytes
+     */
+    public static final int DEFAULT_MAX_NODES = 100000;
+    /**
+     * Names are only indexed up to this length to bound the nodes a single user can add
+     */
+    private static final int MAX_KEY_LENGTH = 40;
+    private static final int MAX_COMPLETE_QUERIES = 500;
+
+    private final GogsAPI api;
+    private final long ttl;
+    private final int maxNodes;
+    private final Node root = new Node();
+    private int nodeCount = 0;
+    // ordered from the least to the most recently fetched
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Long> completeQueries = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_COMPLETE_QUERIES;
+        }
+    };
+    private final GogsAPI.InvalidationListener invalidationListener = new GogsAPI.InvalidationListener() {
+        @Override
+        public void onInvalidate(Invalidation invalidation) {
+            if(invalidation.resource == Invalidation.Resource.USER) {
+                apply(invalidation);
+            }
+        }
+    };
+
+    /**
+     * Creates a new user directory
+     * @param api the api used to look up users that are not in the directory
+     * @param ttl the number of milliseconds a user remains fresh in the directory
+     */
+    public UserDirectory(GogsAPI api, long ttl) {
+        this(api, ttl, DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Creates a new user directory
+     * @param api the api used to look up users that are not in the directory
+     * @param ttl the number of milliseconds a user remains fresh in the directory
+     * @param maxNodes the maximum number of trie nodes to keep
+     */
+    public UserDirectory(GogsAPI api, long ttl, int maxNodes) {
+        this.api = api;
+        this.ttl = ttl;
+        this.maxNodes = Math.max(1, maxNodes);
+        api.addWeakInvalidationListener(invalidationListener);
+    }
+
+    /**
+     * Searches for users whose username or full name contains the query, as the server does.
+     * The api is only called when the directory cannot answer the query on its own.
+     * When enough users are cached they may be different ones than the server would have returned first.
+     * @param query the text to search for
+     * @param limit the maximum number of results to return
+     * @param authUser the user authenticating the request if the api must be called. Requires token or username and password
+     * @return an array of users
+     */
+    public List<User> searchUsers(String query, int limit, User authUser) {
+        if(query == null || query.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        String key = normalize(query);
+        synchronized (this) {
+            List<User> users = find(key, limit);
+            if(users.size() >= limit || isComplete(key)) {
+                return users;
+            }
+        }
+
+        // the server matches regardless of case so the normalized key asks for the same users it is cached under
+        List<User> users = api.searchUsers(key, limit, authUser);
+        // the client's last response may belong to a call made on another thread
+        Response response = api.getThreadResponse();
+        if(response != null && response.code == 200 && !response.isError()) {
+            synchronized (this) {
+                for(User u:users) {
+                    add(u);
+                }
+                // the server returned everything it had for this query
+                if(users.size() < limit && isCached(users)) {
+                    completeQueries.put(key, System.currentTimeMillis());
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Retrieves a user from the directory or from the api if the user is not cached
+     * @param user the user to retrieve. Requires username
+     * @param authUser the user authenticating the request if the api must be called. Requires token or username and password
+     * @return the found user object
+     */
+    public User getUser(User user, User authUser) {
+        if(user == null || user.getUsername() == null) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(normalize(user.getUsername()));
+            if(entry != null && isFresh(entry.fetchedAt)) {
+                return entry.user;
+            }
+        }
+        User foundUser = api.getUser(user, authUser);
+        if(foundUser != null) {
+            add(foundUser);
+        }
+        return foundUser;
+    }
+
+    /**
+     * Creates a new user account and adds it to the directory
+     * @param user the user to be created. Requires username, email, password
+     * @param authUser the user authenticating this request. Requires token or username and password
+     * @param notify send notification email to user
+     * @return the newly created user
+     */
+    public User createUser(User user, User authUser, boolean notify) {
+        User createdUser = api.createUser(user, authUser, notify);
+        if(createdUser != null) {
+            add(createdUser);
+        }
+        return createdUser;
+    }
+
+    /**
+     * Adds or replaces a user in the directory
+     * @param user
+     */
+    public synchronized void add(User user) {
+        if(user == null || user.getUsername() == null || user.getUsername().isEmpty()) {
+            return;
+        }
+        String username = normalize(user.getUsername());
+        remove(username);
+
+        List<String> keys = new ArrayList<>();
+        keys.add(truncate(username));
+        if(user.fullName != null && !user.fullName.trim().isEmpty()) {
+            String fullName = truncate(normalize(user.fullName));
+            if(!keys.contains(fullName)) {
+                keys.add(fullName);
+            }
+        }
+
+        Entry entry = new Entry(user, keys.toArray(new String[keys.size()]), System.currentTimeMillis());
+        entries.put(username, entry);
+        for(String k:entry.keys) {
+            for(int i = 0; i < k.length(); i ++) {
+                nodeCount += root.insert(k, i, entry);
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Checks if none of the users were dropped to stay within the node limit
+     * @param users
+     * @return
+     */
+    private boolean isCached(List<User> users) {
+        for(User u:users) {
+            if(u != null && u.getUsername() != null && !entries.containsKey(normalize(u.getUsername()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the users fetched longest ago until the trie is within its node limit
+     */
+    private void trim() {
+        if(nodeCount <= maxNodes) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        // keep the user that was just added even if it alone exceeds the limit
+        while(nodeCount > maxNodes && entries.size() > 1 && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            unindex(entry);
+        }
+        // dropped users may have been part of results that were thought to be complete
+        completeQueries.clear();
+    }
+
+    /**
+     * Removes a user from the directory
+     * @param user the user to remove. Requires username
+     */
+    public synchronized void remove(User user) {
+        if(user != null && user.getUsername() != null) {
+            remove(normalize(user.getUsername()));
+        }
+    }
+
+    /**
+     * Applies a change made to a user through the api
+     * @param invalidation
+     */
+    private synchronized void apply(Invalidation invalidation) {
+        if(invalidation.action != Invalidation.Action.DELETED && invalidation.value instanceof User) {
+            add((User)invalidation.value);
+        } else if(invalidation.owner != null) {
+            remove(normalize(invalidation.owner));
+            if(invalidation.action == Invalidation.Action.CREATED) {
+                // the new user may belong in results that were thought to be complete
+                completeQueries.clear();
+            }
+        }
+    }
+
+    /**
+     * Removes all users from the directory
+     */
+    public synchronized void clear() {
+        entries.clear();
+        completeQueries.clear();
+        root.children = Node.NO_CHILDREN;
+        root.labels = Node.NO_LABELS;
+        root.entries = null;
+        nodeCount = 0;
+    }
+
+    /**
+     * Returns the number of users in the directory
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of nodes in the trie
+     * @return
+     */
+    synchronized int getNodeCount() {
+        return nodeCount;
+    }
+
+    private void remove(String username) {
+        Entry entry = entries.remove(username);
+        if(entry != null) {
+            unindex(entry);
+        }
+    }
+
+    /**
+     * Removes the user from every suffix of its keys and prunes the nodes left empty
+     * @param entry
+     */
+    private void unindex(Entry entry) {
+        for(String k:entry.keys) {
+            for(int i = 0; i < k.length(); i ++) {
+                nodeCount -= root.remove(k, i, entry);
+            }
+        }
+    }
+
+    /**
+     * Collects the fresh users with a key containing the query
+     * @param query
+     * @param limit
+     * @return
+     */
+    private List<User> find(String query, int limit) {
+        List<User> users = new ArrayList<>();
+        Node node = root.find(truncate(query), 0);
+        if(node != null) {
+            List<Entry> matches = new ArrayList<>();
+            node.collect(matches, limit, System.currentTimeMillis() - ttl);
+            for(Entry entry:matches) {
+                users.add(entry.user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Checks if the server has already returned every user matching a part of this query.
+     * Users containing the query necessarily contain that part so the local results are complete.
+     * Queries longer than the indexed keys cannot be answered locally
+     * @param query
+     * @return
+     */
+    private boolean isComplete(String query) {
+        if(query.length() > MAX_KEY_LENGTH) {
+            return false;
+        }
+        for(int start = 0; start < query.length(); start ++) {
+            for(int end = start + 1; end <= query.length(); end ++) {
+                String part = query.substring(start, end);
+                Long completedAt = completeQueries.get(part);
+                if(completedAt != null) {
+                    if(isFresh(completedAt)) {
+                        return true;
+                    }
+                    completeQueries.remove(part);
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isFresh(long fetchedAt) {
+        return System.currentTimeMillis() - fetchedAt < ttl;
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.US);
+    }
+
+    private static String truncate(String key) {
+        return key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key;
+    }
+
+    private static class Entry {
+        final User user;
+        final String[] keys;
+        final long fetchedAt;
+
+        Entry(User user, String[] keys, long fetchedAt) {
+            this.user = user;
+            this.keys = keys;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    /**
+     * A trie node labelled by a single character. Children are kept in sorted parallel arrays rather than maps to keep the tree small.
+     * An entry is held by the node of every suffix of its keys
+     */
+    private static class Node {
+        static final char[] NO_LABELS = new char[0];
+        static final Node[] NO_CHILDREN = new Node[0];
+
+        char[] labels = NO_LABELS;
+        Node[] children = NO_CHILDREN;
+        Entry[] entries = null;
+
+        Node find(String key, int index) {
+            Node node = this;
+            for(int i = index; i < key.length() && node != null; i ++) {
+                int pos = Arrays.binarySearch(node.labels, key.charAt(i));
+                node = pos >= 0 ? node.children[pos] : null;
+            }
+            return node;
+        }
+
+        /**
+         * Adds the entry at the node for the key starting at the index, creating the missing nodes
+         * @param key
+         * @param index
+         * @param entry
+         * @return the number of nodes created
+         */
+        int insert(String key, int index, Entry entry) {
+            int created = 0;
+            Node node = this;
+            for(int i = index; i < key.length(); i ++) {
+                char c = key.charAt(i);
+                int pos = Arrays.binarySearch(node.labels, c);
+                if(pos < 0) {
+                    pos = -pos - 1;
+                    char[] labels = new char[node.labels.length + 1];
+                    Node[] children = new Node[node.children.length + 1];
+                    System.arraycopy(node.labels, 0, labels, 0, pos);
+                    System.arraycopy(node.children, 0, children, 0, pos);
+                    labels[pos] = c;
+                    children[pos] = new Node();
+                    System.arraycopy(node.labels, pos, labels, pos + 1, node.labels.length - pos);
+                    System.arraycopy(node.children, pos, children, pos + 1, node.children.length - pos);
+                    node.labels = labels;
+                    node.children = children;
+                    created ++;
+                }
+                node = node.children[pos];
+            }
+            node.add(entry);
+            return created;
+        }
+
+        /**
+         * Removes the entry from the node for the key starting at the index and prunes the nodes left empty
+         * @param key
+         * @param index
+         * @param entry
+         * @return the number of nodes pruned
+         */
+        int remove(String key, int index, Entry entry) {
+            if(index == key.length()) {
+                remove(entry);
+                return 0;
+            }
+            int pos = Arrays.binarySearch(labels, key.charAt(index));
+            if(pos < 0) {
+                return 0;
+            }
+            Node child = children[pos];
+            int pruned = child.remove(key, index + 1, entry);
+            if(child.entries == null && child.children.length == 0) {
+                char[] remainingLabels = new char[labels.length - 1];
+                Node[] remainingChildren = new Node[children.length - 1];
+                System.arraycopy(labels, 0, remainingLabels, 0, pos);
+                System.arraycopy(children, 0, remainingChildren, 0, pos);
+                System.arraycopy(labels, pos + 1, remainingLabels, pos, labels.length - pos - 1);
+                System.arraycopy(children, pos + 1, remainingChildren, pos, children.length - pos - 1);
+                labels = remainingLabels.length > 0 ? remainingLabels : NO_LABELS;
+                children = remainingChildren.length > 0 ? remainingChildren : NO_CHILDREN;
+                pruned ++;
+            }
+            return pruned;
+        }
+
+        void add(Entry entry) {
+            if(entries == null) {
+                entries = new Entry[]{entry};
+            } else {
+                for(Entry e:entries) {
+                    if(e == entry) {
+                        return;
+                    }
+                }
+                entries = Arrays.copyOf(entries, entries.length + 1);
+                entries[entries.length - 1] = entry;
+            }
+        }
+
+        void remove(Entry entry) {
+            if(entries == null) {
+                return;
+            }
+            for(int i = 0; i < entries.length; i ++) {
+                if(entries[i] == entry) {
+                    if(entries.length == 1) {
+                        entries = null;
+                    } else {
+                        Entry[] remaining = new Entry[entries.length - 1];
+                        System.arraycopy(entries, 0, remaining, 0, i);
+                        System.arraycopy(entries, i + 1, remaining, i, entries.length - i - 1);
+                        entries = remaining;
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Collects distinct fresh entries in this subtree in alphabetical order
+         * @param matches
+         * @param limit
+         * @param staleBefore entries fetched before this time are skipped
+         */
+        void collect(List<Entry> matches, int limit, long staleBefore) {
+            if(entries != null) {
+                for(Entry e:entries) {
+                    if(matches.size() >= limit) {
+                        return;
+                    }
+                    if(e.fetchedAt > staleBefore && !matches.contains(e)) {
+                        matches.add(e);
+                    }
+                }
+            }
+            for(Node child:children) {
+                if(matches.size() >= limit) {
+                    return;
+                }
+                child.collect(matches, limit, staleBefore);
+            }
+        }
+    }
+}
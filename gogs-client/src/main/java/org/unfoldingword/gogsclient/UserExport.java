@@ -0,0 +1,593 @@
+package org.unfoldingword.gogsclient;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Exports every user on the server to a JSON Lines file. Requires an admin.
+ *
+ * The server can only search users by a fragment of their name and returns at most a page of results, so the
+ * export walks the name space: a search that fills a whole page is narrowed by appending each character a name
+ * may contain until every search returns less than a page. Users are written to the file as they are found,
+ * once each, so memory use does not grow with the number of users.
+ *
+ * The server may cap searches at fewer users than the page size asked for, so a search is only trusted to be complete
+ * when it returns fewer users than some other search did. Searches that return the most users seen so far are narrowed
+ * too, which costs a few extra searches on small servers but never misses users on servers with a cap.
+ *
+ * The server treats '_' as a wildcard in searches so it is never used to narrow them. A name containing '_' is still
+ * found through the parts before and after the underscore unless each of those parts is shared by more than a page
+ * of other names.
+ *
+ * Progress is checkpointed to a second file. If an export fails or is cancelled, running it again with the same
+ * files continues where it stopped. The checkpoint is deleted once the export completes.
+ */
+public class UserExport {
+
+    private static final int VERSION = 1;
+    /**
+     * The characters searches are narrowed with. Usernames may also contain '_' which the server treats as a wildcard
+     */
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789-.";
+    private static final long CHECKPOINT_INTERVAL = 2000;
+
+    private final GogsAPI api;
+    private final User admin;
+    private final File output;
+    private final File checkpoint;
+    private final Object runLock = new Object();
+    private int concurrency = 2;
+    private int pageSize = 50;
+    private Listener listener = null;
+
+    private final Deque<String> pending = new ArrayDeque<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private final BitSet seen = new BitSet();
+    private OutputStream out = null;
+    private Cancellation cancellation = null;
+    private boolean cancelled = false;
+    private Response failure = null;
+    private int exported = 0;
+    private int queries = 0;
+    private int largestPage = 0;
+    private long checkpointedAt = 0;
+
+    /**
+     * Creates a new export
+     * @param api
+     * @param admin the admin performing the searches. Requires token or username and password
+     * @param output the file the users are written to, one json object per line
+     * @param checkpoint the file that records the progress of an unfinished export
+     */
+    public UserExport(GogsAPI api, User admin, File output, File checkpoint) {
+        this.api = api;
+        this.admin = admin;
+        this.output = output;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Sets how many searches run at the same time.
+     * The searches run as background work on the api's {@link Dispatcher} and are also bound by its limits
+     * @param concurrency
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Sets how many users are requested by each search.
+     * Larger pages need fewer searches but the server may cap them, in which case searches are narrowed
+     * once they return as many users as the server allows
+     * @param pageSize
+     */
+    public synchronized void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * @param listener notified after every search
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the response of the call that stopped the last run
+     * @return the failed response or null if the run was not stopped by a failure
+     */
+    public synchronized Response getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns how far the export has progressed
+     * @return
+     */
+    public synchronized Progress getProgress() {
+        return new Progress(exported, queries, pending.size() + inFlight.size());
+    }
+
+    /**
+     * Stops a running export. The searches in progress are aborted and the checkpoint is kept
+     */
+    public void cancel() {
+        Cancellation c;
+        synchronized (this) {
+            cancelled = true;
+            c = cancellation;
+            notifyAll();
+        }
+        if(c != null) {
+            c.cancel();
+        }
+    }
+
+    /**
+     * Runs the export, continuing from the checkpoint if there is one.
+     * This blocks until the export completes, fails or is cancelled
+     * @return true if every user was exported
+     */
+    public boolean run() {
+        synchronized (runLock) {
+            int workers;
+            synchronized (this) {
+                cancelled = false;
+                failure = null;
+                cancellation = new Cancellation();
+                workers = concurrency;
+            }
+            try {
+                prepare();
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for(int i = 0; i < workers; i ++) {
+                    futures.add(api.getDispatcher().submit(Dispatcher.Priority.BACKGROUND, new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            work();
+                            return null;
+                        }
+                    }));
+                }
+                for(Future<Void> future:futures) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancel();
+                    } catch (ExecutionException e) {
+                        // a worker that dies leaves its search in the checkpoint
+                        cancel();
+                    }
+                }
+            } catch (IllegalStateException e) {
+                // the dispatcher was shut down
+                cancel();
+            }
+            boolean complete;
+            synchronized (this) {
+                complete = !cancelled && failure == null && pending.isEmpty() && inFlight.isEmpty();
+                if(!complete) {
+                    saveCheckpoint();
+                }
+            }
+            close();
+            if(complete) {
+                checkpoint.delete();
+            }
+            return complete;
+        }
+    }
+
+    /**
+     * Runs the export without blocking the calling thread
+     * @return a future that completes with the result of {@link #run()}
+     */
+    public Future<Boolean> runInBackground() {
+        FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return run();
+            }
+        });
+        // not run on the dispatcher itself since the searches submitted from a dispatcher thread would run one at a time
+        Thread thread = new Thread(task, "gogs-user-export");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Restores the progress from the checkpoint or starts a new export
+     * @throws IOException
+     */
+    private synchronized void prepare() throws IOException {
+        pending.clear();
+        inFlight.clear();
+        seen.clear();
+        exported = 0;
+        queries = 0;
+        largestPage = 0;
+        if(loadCheckpoint() && output.exists()) {
+            readExported();
+            out = new BufferedOutputStream(new FileOutputStream(output, true), 8192);
+        } else {
+            // the output is only trusted alongside its checkpoint
+            pending.clear();
+            queries = 0;
+            for(int i = 0; i < ALPHABET.length(); i ++) {
+                pending.add(String.valueOf(ALPHABET.charAt(i)));
+            }
+            out = new BufferedOutputStream(new FileOutputStream(output, false), 8192);
+            saveCheckpoint();
+        }
+    }
+
+    private void close() {
+        OutputStream stream;
+        synchronized (this) {
+            stream = out;
+            out = null;
+            cancellation = null;
+        }
+        if(stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // the checkpoint only counts users that were flushed
+            }
+        }
+    }
+
+    /**
+     * Runs searches until there are none left or the export is stopped
+     */
+    private void work() {
+        Cancellation.Scope scope;
+        synchronized (this) {
+            scope = cancellation.enter();
+        }
+        try {
+            String query;
+            while((query = take()) != null) {
+                boolean searched = false;
+                try {
+                    searched = search(query);
+                } finally {
+                    finish(query, searched);
+                }
+            }
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Waits for the next search
+     * @return the query or null if the export is done or stopped
+     */
+    private synchronized String take() {
+        while(pending.isEmpty() && !inFlight.isEmpty() && !isStopped()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+        if(isStopped() || pending.isEmpty()) {
+            return null;
+        }
+        // searching depth first keeps the number of pending queries small
+        String query = pending.pop();
+        inFlight.add(query);
+        return query;
+    }
+
+    private void finish(String query, boolean searched) {
+        Listener l;
+        Progress progress;
+        synchronized (this) {
+            inFlight.remove(query);
+            if(searched) {
+                queries ++;
+            } else {
+                // the search is repeated when the export is resumed
+                pending.push(query);
+            }
+            if(System.currentTimeMillis() - checkpointedAt >= CHECKPOINT_INTERVAL) {
+                saveCheckpoint();
+            }
+            notifyAll();
+            l = listener;
+            progress = new Progress(exported, queries, pending.size() + inFlight.size());
+        }
+        if(l != null && searched) {
+            l.onProgress(progress);
+        }
+    }
+
+    /**
+     * Exports the users that match the query and narrows the query if the results were cut off
+     * @param query
+     * @return true if the search succeeded
+     */
+    private boolean search(String query) {
+        int limit;
+        synchronized (this) {
+            limit = pageSize;
+        }
+        List<JSONObject> users = api.searchUsersJSON(query, limit, admin);
+        Response response = api.getThreadResponse();
+        if(response == null || response.isError()) {
+            fail(response);
+            return false;
+        }
+        for(JSONObject user:users) {
+            if(!write(user)) {
+                return false;
+            }
+        }
+        boolean cutOff;
+        synchronized (this) {
+            // a server that caps searches below the limit returns at most as many users as the largest page seen
+            cutOff = users.size() >= limit || users.size() >= largestPage;
+            largestPage = Math.max(largestPage, users.size());
+        }
+        if(users.isEmpty() || !cutOff) {
+            return true;
+        }
+        // a name equal to the query is not found by any of the narrower searches
+        JSONObject exact = api.getUserJSON(query, admin);
+        response = api.getThreadResponse();
+        if(exact != null) {
+            if(!write(exact)) {
+                return false;
+            }
+        } else if(response != null && response.isError() && response.getError() != ErrorType.NOT_FOUND) {
+            fail(response);
+            return false;
+        }
+        synchronized (this) {
+            for(int i = ALPHABET.length() - 1; i >= 0; i --) {
+                pending.push(query + ALPHABET.charAt(i));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a user to the output unless it was already exported.
+     * The user is written as the server sent it so fields the server left out are not filled with defaults
+     * @param user
+     * @return false if the output could not be written
+     */
+    private synchronized boolean write(JSONObject user) {
+        int id = user.optInt("id", 0);
+        if(id <= 0 || seen.get(id)) {
+            return true;
+        }
+        if(out == null) {
+            return false;
+        }
+        try {
+            out.write(user.toString().getBytes("UTF-8"));
+            out.write('\n');
+        } catch (IOException e) {
+            fail(null);
+            return false;
+        }
+        seen.set(id);
+        exported ++;
+        return true;
+    }
+
+    private synchronized void fail(Response response) {
+        // failures caused by cancelling are not reported
+        if(!cancelled && failure == null) {
+            failure = response != null ? response : new Response(-1, null, new IOException("The export could not be written to " + output));
+        }
+        notifyAll();
+    }
+
+    private boolean isStopped() {
+        return cancelled || failure != null;
+    }
+
+    /**
+     * Flushes the output and records the remaining searches.
+     * The file is replaced atomically so a crash never leaves it half written
+     */
+    private void saveCheckpoint() {
+        checkpointedAt = System.currentTimeMillis();
+        if(out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // the users that were not flushed are found again after resuming
+            }
+        }
+        JSONArray remaining = new JSONArray();
+        for(String query:inFlight) {
+            remaining.put(query);
+        }
+        for(String query:pending) {
+            remaining.put(query);
+        }
+        JSONObject json = new JSONObject();
+        Util.addToJSON(json, "version", VERSION);
+        Util.addToJSON(json, "queries", queries);
+        Util.addToJSON(json, "largest_page", largestPage);
+        Util.addToJSON(json, "pending", remaining);
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(temp);
+            stream.write(json.toString().getBytes("UTF-8"));
+            stream.getFD().sync();
+        } catch (IOException e) {
+            return;
+        } finally {
+            if(stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // the data has already been synced
+                }
+            }
+        }
+        temp.renameTo(checkpoint);
+    }
+
+    /**
+     * Reads the remaining searches from the checkpoint
+     * @return false if there is no usable checkpoint
+     */
+    private boolean loadCheckpoint() {
+        if(!checkpoint.exists()) {
+            return false;
+        }
+        StringBuilder sb = new StringBuilder();
+        InputStreamReader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(checkpoint), "UTF-8");
+            char[] buffer = new char[4096];
+            int read;
+            while((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            JSONObject json = new JSONObject(sb.toString());
+            JSONArray items = json.optJSONArray("pending");
+            if(json.optInt("version") > VERSION || items == null) {
+                return false;
+            }
+            // restored in reverse so the first query is searched first
+            for(int i = items.length() - 1; i >= 0; i --) {
+                pending.push(items.getString(i));
+            }
+            queries = json.optInt("queries");
+            largestPage = json.optInt("largest_page");
+            return true;
+        } catch (IOException | JSONException e) {
+            // an unreadable checkpoint starts the export over
+            pending.clear();
+            return false;
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // nothing was written
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the ids of the users already in the output and drops a line left unfinished by a crash
+     * @throws IOException
+     */
+    private void readExported() throws IOException {
+        long end = 0;
+        long position = 0;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        InputStream in = new FileInputStream(output);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                for(int i = 0; i < read; i ++) {
+                    position ++;
+                    if(buffer[i] != '\n') {
+                        line.write(buffer[i]);
+                        continue;
+                    }
+                    try {
+                        int id = new JSONObject(line.toString("UTF-8")).optInt("id");
+                        if(id > 0 && !seen.get(id)) {
+                            seen.set(id);
+                            exported ++;
+                        }
+                    } catch (JSONException e) {
+                        // not a user
+                    }
+                    line.reset();
+                    end = position;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if(end < position) {
+            RandomAccessFile file = new RandomAccessFile(output, "rw");
+            try {
+                file.setLength(end);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * How far an export has progressed
+     */
+    public static class Progress {
+        /**
+         * The number of users written to the output
+         */
+        public final int exported;
+        /**
+         * The number of searches completed
+         */
+        public final int queries;
+        /**
+         * The number of searches known to remain. This grows as searches are narrowed
+         */
+        public final int pending;
+
+        Progress(int exported, int queries, int pending) {
+            this.exported = exported;
+            this.queries = queries;
+            this.pending = pending;
+        }
+    }
+
+    /**
+     * Receives the progress of an export
+     */
+    public interface Listener {
+        /**
+         * Called on a background thread after each search
+         * @param progress
+         */
+        void onProgress(Progress progress);
+    }
+}
@@ -23,7 +23,7 @@ public class Util {
             try {
                 json.put(field, value);
             } catch (JSONException e) {
-                e.printStackTrace();
+                // only thrown for non-finite numbers which are never stored
             }
         }
         return json;
@@ -37,16 +37,8 @@ public class Util {
      * @return
      */
     public static Object getFromJSON(JSONObject json, String field, Object defaultValue) {
-        if(json.has(field)) {
-            try {
-                return json.get(field);
-            } catch (JSONException e) {
-                e.printStackTrace();
-                return defaultValue;
-            }
-        } else {
-            return defaultValue;
-        }
+        Object value = json.opt(field);
+        return value != null ? value : defaultValue;
     }
 
     /**
@@ -58,27 +50,17 @@ public class Util {
      */
     @SuppressWarnings("unchecked")
     public static <T> T[] getArrayFromJSON(JSONObject json, String field, T[] defaultValue) {
-        if(json.has(field)) {
-            try {
-                JSONArray arr = json.getJSONArray(field);
-
-                if (arr.length() == 0) {
-                    return defaultValue;
-                }
-
-                Class<?> componentType = arr.get(0).getClass();
-                T[] result = (T[]) Array.newInstance(componentType, arr.length());
-                for (int i = 0; i < arr.length(); i++) {
-                    result[i] = (T) arr.get(i);
-                }
-                return result;
-            } catch (JSONException e) {
-                e.printStackTrace();
-                return defaultValue;
-            }
-        } else {
+        JSONArray arr = json.optJSONArray(field);
+        if (arr == null || arr.length() == 0) {
             return defaultValue;
         }
+
+        Class<?> componentType = arr.opt(0).getClass();
+        T[] result = (T[]) Array.newInstance(componentType, arr.length());
+        for (int i = 0; i < arr.length(); i++) {
+            result[i] = (T) arr.opt(i);
+        }
+        return result;
     }
 
     public static <T> JSONArray getJSONFromArray(T[] array) {
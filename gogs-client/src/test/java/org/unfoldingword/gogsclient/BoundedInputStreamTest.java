@@ -0,0 +1,48 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class BoundedInputStreamTest {
+
+    @Test
+    public void readsUpToTheLimit() throws Exception {
+        InputStream in = new BoundedInputStream(new ByteArrayInputStream(new byte[100]), 100);
+        byte[] buffer = new byte[64];
+        assertEquals(64, in.read(buffer));
+        assertEquals(36, in.read(buffer));
+        assertEquals(-1, in.read(buffer));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void failsPastTheLimit() throws Exception {
+        InputStream in = new BoundedInputStream(new ByteArrayInputStream(new byte[101]), 100);
+        assertEquals(100, in.read(new byte[100]));
+        try {
+            in.read();
+            fail();
+        } catch (ResponseTooLargeException e) {
+            assertEquals(100, e.getLimit());
+        }
+    }
+
+    @Test
+    public void countsSkippedBytes() throws Exception {
+        InputStream in = new BoundedInputStream(new ByteArrayInputStream(new byte[20]), 10);
+        assertEquals(10, in.skip(10));
+        assertFalse(in.markSupported());
+        try {
+            in.skip(1);
+            fail();
+        } catch (ResponseTooLargeException e) {
+            // expected
+        }
+    }
+}
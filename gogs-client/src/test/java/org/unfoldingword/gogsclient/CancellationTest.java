@@ -0,0 +1,73 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CancellationTest {
+
+    @Test
+    public void cancellingTheParentCancelsChildren() {
+        Cancellation parent = new Cancellation();
+        Cancellation child = parent.child(60000);
+        Cancellation grandchild = child.child(Long.MAX_VALUE);
+        parent.cancel();
+        assertTrue(child.isCancelled());
+        assertTrue(grandchild.isCancelled());
+    }
+
+    @Test
+    public void closedChildrenAreReleased() {
+        Cancellation parent = new Cancellation();
+        for(int i = 0; i < 100; i ++) {
+            parent.child(60000).close();
+        }
+        assertEquals(0, parent.getListenerCount());
+
+        Cancellation child = parent.child(60000);
+        child.close();
+        parent.cancel();
+        assertFalse(child.isCancelled());
+    }
+
+    @Test
+    public void closedTimeoutsLeaveTheTimer() {
+        int scheduled = Cancellation.getScheduledCount();
+        for(int i = 0; i < 1000; i ++) {
+            Cancellation.withTimeout(60000).close();
+        }
+        assertTrue(Cancellation.getScheduledCount() <= scheduled);
+    }
+
+    @Test
+    public void cancelledChildrenAreReleased() throws Exception {
+        Cancellation parent = new Cancellation();
+        parent.child(Long.MAX_VALUE).cancel();
+        Cancellation timedOut = parent.child(10);
+        Cancellation expired = parent.child(0);
+        Thread.sleep(200);
+        assertTrue(timedOut.isCancelled());
+        assertTrue(expired.isCancelled());
+        assertEquals(0, parent.getListenerCount());
+        assertFalse(parent.isCancelled());
+    }
+
+    @Test
+    public void childrenOfCancelledParentsAreCancelled() {
+        Cancellation parent = new Cancellation();
+        parent.cancel();
+        Cancellation child = parent.child(60000);
+        assertTrue(child.isCancelled());
+        assertEquals(0, parent.getListenerCount());
+    }
+
+    @Test
+    public void childDeadlineIsLimitedByTheParent() {
+        Cancellation parent = Cancellation.withTimeout(1000);
+        assertTrue(parent.child(60000).remaining() <= 1000);
+        assertTrue(parent.child(100).remaining() <= 100);
+        parent.close();
+    }
+}
@@ -0,0 +1,144 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompressionTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    @Test
+    public void decodesGzip() throws Exception {
+        byte[] body = user().getBytes("UTF-8");
+        byte[] compressed = gzip(body);
+        GogsAPI api = new GogsAPI(new EncodedTransport("gzip", compressed), API);
+        assertEquals("Alice", api.getUser(new User("alice", null), null).fullName);
+
+        Metrics metrics = api.getMetrics();
+        assertEquals(compressed.length, metrics.getBytesReceived());
+        assertEquals(body.length, metrics.getBytesDecoded());
+        assertEquals(1, metrics.getCompressedResponseCount());
+    }
+
+    @Test
+    public void decodesDeflate() throws Exception {
+        byte[] body = user().getBytes("UTF-8");
+        byte[] compressed = deflate(body);
+        GogsAPI api = new GogsAPI(new EncodedTransport("Deflate", compressed), API);
+        assertEquals("Alice", api.getUser(new User("alice", null), null).fullName);
+
+        Metrics metrics = api.getMetrics();
+        assertEquals(compressed.length, metrics.getBytesReceived());
+        assertEquals(body.length, metrics.getBytesDecoded());
+        assertEquals(1, metrics.getCompressedResponseCount());
+    }
+
+    @Test
+    public void passesIdentityThrough() throws Exception {
+        byte[] body = user().getBytes("UTF-8");
+        GogsAPI api = new GogsAPI(new EncodedTransport(null, body), API);
+        assertEquals("Alice", api.getUser(new User("alice", null), null).fullName);
+        api = new GogsAPI(new EncodedTransport("identity", body), API);
+        assertEquals("Alice", api.getUser(new User("alice", null), null).fullName);
+
+        Metrics metrics = api.getMetrics();
+        assertEquals(body.length, metrics.getBytesReceived());
+        assertEquals(body.length, metrics.getBytesDecoded());
+        assertEquals(0, metrics.getCompressedResponseCount());
+    }
+
+    @Test
+    public void corruptBodiesFail() throws Exception {
+        GogsAPI api = new GogsAPI(new EncodedTransport("gzip", user().getBytes("UTF-8")), API);
+        assertNull(api.getUser(new User("alice", null), null));
+        assertNotNull(api.getLastResponse().exception);
+    }
+
+    private static String user() {
+        StringBuilder sb = new StringBuilder("{\"id\":1,\"username\":\"alice\",\"full_name\":\"Alice\",\"website\":\"");
+        // repetitive content so compression makes a difference
+        for(int i = 0; i < 100; i ++) {
+            sb.append("https://example.com/");
+        }
+        return sb.append("\"}").toString();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream os = new GZIPOutputStream(out);
+        os.write(data);
+        os.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream os = new DeflaterOutputStream(out);
+        os.write(data);
+        os.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Answers every request with the same encoded body
+     */
+    private static class EncodedTransport implements Transport {
+        private final String encoding;
+        private final byte[] body;
+
+        EncodedTransport(String encoding, byte[] body) {
+            this.encoding = encoding;
+            this.body = body;
+        }
+
+        @Override
+        public Exchange newExchange(Request request) {
+            return new Exchange() {
+                @Override
+                public int execute() {
+                    return 200;
+                }
+
+                @Override
+                public Map<String, List<String>> getHeaders() {
+                    if(encoding == null) {
+                        return Collections.emptyMap();
+                    }
+                    return Collections.singletonMap("Content-Encoding", Collections.singletonList(encoding));
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(body);
+                }
+
+                @Override
+                public void abort() {
+                    // nothing in flight
+                }
+
+                @Override
+                public void close() {
+                    // nothing to release
+                }
+            };
+        }
+    }
+}
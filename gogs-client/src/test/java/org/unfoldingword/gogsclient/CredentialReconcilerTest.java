@@ -0,0 +1,96 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CredentialReconcilerTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    @Test
+    public void addsKeepsAndRemoves() {
+        FakeTransport transport = server();
+        CredentialReconciler reconciler = new CredentialReconciler(new GogsAPI(transport, API));
+        User alice = new User("alice", "secret");
+
+        // the laptop key only differs by its comment so it is kept
+        List<PublicKey> keys = Arrays.asList(new PublicKey("laptop", "ssh-rsa AAAA renamed"),
+                new PublicKey("desktop", "ssh-rsa CCCC desktop"));
+        List<Token> tokens = Arrays.asList(new Token("app"), new Token("sync"));
+        CredentialReconciler.Result result = reconciler.reconcile(alice, keys, tokens, true);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(2, result.keys.size());
+        assertEquals(1, result.createdKeys.size());
+        assertEquals(3, result.createdKeys.get(0).getId());
+        assertEquals(1, result.deletedKeys.size());
+        assertEquals(2, result.deletedKeys.get(0).getId());
+        assertEquals(2, result.tokens.size());
+        assertEquals(1, result.createdTokens.size());
+        assertEquals("sync", result.createdTokens.get(0).getName());
+        List<String> requests = transport.getRequests();
+        assertEquals(5, requests.size());
+        assertTrue(requests.contains("POST /api/v1/user/keys"));
+        assertTrue(requests.contains("DELETE /api/v1/user/keys/2"));
+        assertTrue(requests.contains("POST /api/v1/users/alice/tokens"));
+
+        // the cached listing was updated with the changes so nothing is left to do
+        result = reconciler.reconcile(alice, keys, tokens, true);
+        assertTrue(result.isSuccessful());
+        assertEquals(2, result.keys.size());
+        assertEquals(2, result.tokens.size());
+        assertEquals(0, result.createdKeys.size() + result.deletedKeys.size() + result.createdTokens.size());
+        assertEquals(5, transport.getRequests().size());
+    }
+
+    @Test
+    public void extraKeysAreKeptWithoutPruning() {
+        FakeTransport transport = server();
+        CredentialReconciler reconciler = new CredentialReconciler(new GogsAPI(transport, API));
+        CredentialReconciler.Result result = reconciler.reconcile(new User("alice", "secret"),
+                Collections.singletonList(new PublicKey("laptop", "ssh-rsa AAAA laptop")), null, false);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(1, result.keys.size());
+        assertEquals(0, result.deletedKeys.size());
+        // only the listings were requested
+        assertEquals(2, transport.getRequests().size());
+    }
+
+    @Test
+    public void failuresAreCounted() {
+        FakeTransport transport = server().respond("DELETE /api/v1/user/keys/2", 500, "");
+        CredentialReconciler reconciler = new CredentialReconciler(new GogsAPI(transport, API));
+        CredentialReconciler.Result result = reconciler.reconcile(new User("alice", "secret"),
+                Collections.singletonList(new PublicKey("laptop", "ssh-rsa AAAA laptop")), null, true);
+        assertEquals(1, result.failures);
+        assertEquals(0, result.deletedKeys.size());
+
+        // nothing is changed when the current state cannot be listed
+        FakeTransport unlisted = new FakeTransport();
+        reconciler = new CredentialReconciler(new GogsAPI(unlisted, API));
+        assertNull(reconciler.reconcile(new User("alice", "secret"), null, null, true));
+        assertEquals(2, unlisted.getRequests().size());
+    }
+
+    private static FakeTransport server() {
+        return new FakeTransport()
+                .respond("GET /api/v1/users/alice/keys", 200,
+                        "[{\"id\":1,\"title\":\"laptop\",\"key\":\"ssh-rsa AAAA laptop\"},"
+                                + "{\"id\":2,\"title\":\"old\",\"key\":\"ssh-rsa BBBB old\"}]")
+                .respond("GET /api/v1/users/alice/tokens", 200, "[{\"name\":\"app\",\"sha1\":\"abc\"}]")
+                .respond("POST /api/v1/user/keys", 201, "{\"id\":3,\"title\":\"desktop\",\"key\":\"ssh-rsa CCCC desktop\"}")
+                .respond("DELETE /api/v1/user/keys/2", 204, "")
+                .respond("POST /api/v1/users/alice/tokens", 201, "{\"name\":\"sync\",\"sha1\":\"def\"}");
+    }
+}
@@ -0,0 +1,188 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DispatcherTest {
+
+    private Dispatcher dispatcher;
+
+    @After
+    public void tearDown() {
+        if(dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void queuedCallsStartInPriorityOrder() throws Exception {
+        dispatcher = new Dispatcher(2);
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        dispatcher.submit(Dispatcher.Priority.NORMAL, block(first));
+        dispatcher.submit(Dispatcher.Priority.NORMAL, block(second));
+
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        Future<?> background = dispatcher.submit(Dispatcher.Priority.BACKGROUND, record(started, "background"));
+        Future<?> normal = dispatcher.submit(Dispatcher.Priority.NORMAL, record(started, "normal"));
+        Future<?> interactive = dispatcher.submit(Dispatcher.Priority.INTERACTIVE, record(started, "interactive"));
+        assertEquals(1, dispatcher.getQueuedCount(Dispatcher.Priority.BACKGROUND));
+
+        first.countDown();
+        interactive.get(5, TimeUnit.SECONDS);
+        normal.get(5, TimeUnit.SECONDS);
+        // one slot is still taken so background work must leave the other free
+        Thread.sleep(50);
+        assertEquals(1, dispatcher.getQueuedCount(Dispatcher.Priority.BACKGROUND));
+
+        second.countDown();
+        background.get(5, TimeUnit.SECONDS);
+        assertEquals(3, started.size());
+        assertEquals("interactive", started.get(0));
+        assertEquals("normal", started.get(1));
+        assertEquals("background", started.get(2));
+    }
+
+    @Test
+    public void backgroundWorkLeavesASlotForInteractiveCalls() throws Exception {
+        dispatcher = new Dispatcher(2);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.submit(Dispatcher.Priority.BACKGROUND, block(release));
+        dispatcher.submit(Dispatcher.Priority.BACKGROUND, block(release));
+        Thread.sleep(50);
+        assertEquals(1, dispatcher.getRunningCount(Dispatcher.Priority.BACKGROUND));
+        assertEquals(1, dispatcher.getQueuedCount(Dispatcher.Priority.BACKGROUND));
+
+        Future<String> interactive = dispatcher.submit(Dispatcher.Priority.INTERACTIVE, value("done"));
+        assertEquals("done", interactive.get(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void singleSlotRejectsBackgroundWork() throws Exception {
+        dispatcher = new Dispatcher(1);
+        try {
+            dispatcher.submit(Dispatcher.Priority.BACKGROUND, value("x"));
+            fail("background work would take the only slot");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("x", dispatcher.submit(Dispatcher.Priority.NORMAL, value("x")).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void perPriorityLimits() throws Exception {
+        dispatcher = new Dispatcher(3);
+        dispatcher.setConcurrencyLimit(Dispatcher.Priority.NORMAL, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.submit(Dispatcher.Priority.NORMAL, block(release));
+        Future<String> queued = dispatcher.submit(Dispatcher.Priority.NORMAL, value("normal"));
+        Thread.sleep(50);
+        assertEquals(1, dispatcher.getQueuedCount(Dispatcher.Priority.NORMAL));
+        assertEquals("interactive", dispatcher.submit(Dispatcher.Priority.INTERACTIVE, value("interactive")).get(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals("normal", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void nestedCallsRunInPlace() throws Exception {
+        dispatcher = new Dispatcher(1);
+        final Thread[] threads = new Thread[2];
+        final boolean[] enqueuedDone = new boolean[1];
+        dispatcher.submit(Dispatcher.Priority.NORMAL, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                threads[0] = Thread.currentThread();
+                threads[1] = dispatcher.submit(Dispatcher.Priority.NORMAL, currentThread()).get();
+                // an enqueued call waits for the only slot even though it was submitted from a running call
+                enqueuedDone[0] = dispatcher.enqueue(Dispatcher.Priority.NORMAL, currentThread()).isDone();
+                return null;
+            }
+        }).get(5, TimeUnit.SECONDS);
+        assertSame(threads[0], threads[1]);
+        assertFalse(enqueuedDone[0]);
+    }
+
+    @Test
+    public void enqueuedCallsRunOnAnotherThread() throws Exception {
+        dispatcher = new Dispatcher(2);
+        Future<Future<Thread>> outer = dispatcher.submit(Dispatcher.Priority.NORMAL, new Callable<Future<Thread>>() {
+            @Override
+            public Future<Thread> call() {
+                return dispatcher.enqueue(Dispatcher.Priority.NORMAL, currentThread());
+            }
+        });
+        Future<Thread> inner = outer.get(5, TimeUnit.SECONDS);
+        assertNotSame(Thread.currentThread(), inner.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdownCancelsQueuedCalls() throws Exception {
+        dispatcher = new Dispatcher(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.submit(Dispatcher.Priority.NORMAL, block(release));
+        Future<String> queued = dispatcher.submit(Dispatcher.Priority.NORMAL, value("never"));
+        dispatcher.shutdown();
+        assertTrue(queued.isCancelled());
+        release.countDown();
+        try {
+            dispatcher.submit(Dispatcher.Priority.NORMAL, value("x"));
+            fail("a shut down dispatcher accepted a call");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static Callable<Void> block(final CountDownLatch release) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        };
+    }
+
+    private static Callable<Void> record(final List<String> started, final String name) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                started.add(name);
+                return null;
+            }
+        };
+    }
+
+    private static <T> Callable<T> value(final T value) {
+        return new Callable<T>() {
+            @Override
+            public T call() {
+                return value;
+            }
+        };
+    }
+
+    private static Callable<Thread> currentThread() {
+        return new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        };
+    }
+}
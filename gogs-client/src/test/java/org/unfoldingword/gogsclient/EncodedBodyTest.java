@@ -0,0 +1,59 @@
+package org.unfoldingword.gogsclient;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EncodedBodyTest {
+
+    @Test
+    public void matchesTheValuesItWasEncodedFrom() {
+        EncodedBody body = new EncodedBody(new JSONBody().put("name", "a"), "a", null, new String[]{"x", "y"});
+        assertTrue(body.matches("a", null, new String[]{"x", "y"}));
+        assertFalse(body.matches("b", null, new String[]{"x", "y"}));
+        assertFalse(body.matches("a", "", new String[]{"x", "y"}));
+        assertFalse(body.matches("a", null, new String[]{"x"}));
+        assertFalse(body.matches("a", null));
+    }
+
+    @Test
+    public void sendsTheEncodedBytes() throws Exception {
+        EncodedBody body = new EncodedBody(new JSONBody().put("name", "ü").put("private", true));
+        JSONObject json = new JSONObject(new String(body.toJSONBody().toByteArray(), "UTF-8"));
+        assertEquals("ü", json.getString("name"));
+        assertTrue(json.getBoolean("private"));
+        assertEquals(body.toJSONBody().length(), body.toJSONBody().toByteArray().length);
+    }
+
+    @Test
+    public void usersAreEncodedAgainOnlyAfterAChange() throws Exception {
+        User user = new User("alice", "secret");
+        user.fullName = "Alice";
+        user.toJSONBody();
+        EncodedBody first = getEncodedBody(user);
+        user.toJSONBody();
+        assertSame(first, getEncodedBody(user));
+
+        user.fullName = "Alice Smith";
+        JSONObject json = new JSONObject(new String(user.toJSONBody().toByteArray(), "UTF-8"));
+        assertNotSame(first, getEncodedBody(user));
+        assertEquals("Alice Smith", json.getString("full_name"));
+        assertEquals("secret", json.getString("password"));
+    }
+
+    private static EncodedBody getEncodedBody(User user) throws Exception {
+        Field field = User.class.getDeclaredField("encodedBody");
+        field.setAccessible(true);
+        return (EncodedBody)field.get(user);
+    }
+}
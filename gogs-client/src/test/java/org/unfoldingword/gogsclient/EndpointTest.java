@@ -0,0 +1,82 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class EndpointTest {
+
+    private static final String API = "https://gogs.test/api/v1";
+
+    @Test
+    public void encodesSegments() {
+        assertEquals(API + "/users/a%20b%2Fc%3F%23/tokens", Endpoint.USER_TOKENS.route("a b/c?#").toUrl(API));
+        assertEquals(API + "/users/Az09-._~", Endpoint.USER.route("Az09-._~").toUrl(API));
+    }
+
+    @Test
+    public void keepsSlashesInPaths() {
+        assertEquals(API + "/repos/owner/repo%20name", Endpoint.REPO.route("owner/repo name").toUrl(API));
+        assertEquals(API + "/repos/owner/repo%2Fname", Endpoint.OWNER_REPO.route("owner", "repo/name").toUrl(API));
+    }
+
+    @Test
+    public void encodesQueryValues() {
+        assertEquals(API + "/users/search?q=a%26b%3Dc%2B&limit=10", Endpoint.SEARCH_USERS.route("a&b=c+", 10).toUrl(API));
+        assertEquals(API + "/users/search?q=&limit=-1", Endpoint.SEARCH_USERS.route(null, -1).toUrl(API));
+    }
+
+    @Test
+    public void encodesUtf8() {
+        assertEquals(API + "/users/%C3%BC%E2%82%AC%F0%9F%98%80", Endpoint.USER.route("ü€😀").toUrl(API));
+        // unpaired surrogates become the replacement character
+        assertEquals(API + "/users/%EF%BF%BDx%EF%BF%BD", Endpoint.USER.route("\ud83dx\ude00").toUrl(API));
+    }
+
+    @Test
+    public void roundTripsRandomValues() throws Exception {
+        Random random = new Random(42);
+        for(int n = 0; n < 1000; n ++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for(int i = 0; i < length; i ++) {
+                sb.append((char)(random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(0x10000)));
+            }
+            String value = sb.toString();
+            String expected = replaceUnpairedSurrogates(value);
+            String url = Endpoint.USER.route(value).toUrl(API);
+            String segment = url.substring((API + "/users/").length());
+            assertEquals(-1, segment.indexOf('/'));
+            assertEquals(expected, URLDecoder.decode(segment, "UTF-8"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingParameters() {
+        Endpoint.OWNER_REPO.route("owner");
+    }
+
+    @Test
+    public void buildsTemplatesWithoutPlaceholders() {
+        assertEquals(API + "/user/repos", Endpoint.USER_REPOS.route().toUrl(API));
+        assertEquals("/repos/{}/{}", new Endpoint("/repos/{}/{}").toString());
+    }
+
+    private static String replaceUnpairedSurrogates(String value) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < value.length(); i ++) {
+            char c = value.charAt(i);
+            if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                sb.append(c).append(value.charAt(++ i));
+            } else if(Character.isSurrogate(c)) {
+                sb.append('\uFFFD');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class ErrorListenerTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    @Test
+    public void firesOncePerFailure() {
+        FakeTransport transport = new FakeTransport()
+                .respond("/api/v1/users/alice", 200, "{\"id\":1,\"username\":\"alice\"}")
+                .respond("/api/v1/users/broken", 200, "{\"id\":")
+                .respond("/api/v1/users/private", 403, "")
+                .respond("/api/v1/users/down", 502, "");
+        GogsAPI api = new GogsAPI(transport, API);
+        RecordingListener errors = new RecordingListener();
+        api.setErrorListener(errors);
+
+        assertNotNull(api.getUser(new User("alice", null), null));
+        assertEquals(0, errors.types.size());
+
+        assertNull(api.getUser(new User("missing", null), null));
+        assertNull(api.getUser(new User("broken", null), null));
+        assertNull(api.getUser(new User("private", null), null));
+        assertNull(api.getUser(new User("down", null), null));
+        assertEquals("[NOT_FOUND, PARSE, AUTH, SERVER]", errors.types.toString());
+        assertEquals("/users/{}", errors.responses.get(0).getEndpoint());
+        assertEquals(api.getLastResponse(), errors.responses.get(3));
+    }
+
+    @Test
+    public void failedOverReadsFireOnce() {
+        FakeTransport transport = new FakeTransport() {
+            @Override
+            public Exchange newExchange(Request request) throws IOException {
+                if(request.url.startsWith("http://primary.test")) {
+                    throw new ConnectException("Connection refused");
+                }
+                return super.newExchange(request);
+            }
+        }.respond("/api/v1/users/missing", 404, "");
+        GogsAPI api = new GogsAPI(transport, "http://primary.test/api/v1", "http://mirror.test/api/v1");
+        RecordingListener errors = new RecordingListener();
+        api.setErrorListener(errors);
+
+        // the unreachable primary is not reported since the mirror answered
+        assertNull(api.getUser(new User("missing", null), null));
+        assertEquals("[NOT_FOUND]", errors.types.toString());
+    }
+
+    private static class RecordingListener implements GogsAPI.ErrorListener {
+        final List<ErrorType> types = new ArrayList<>();
+        final List<Response> responses = new ArrayList<>();
+
+        @Override
+        public void onError(ErrorType error, Response response) {
+            types.add(error);
+            responses.add(response);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class FailoverTest {
+
+    private static final String PRIMARY = "http://primary.test/api/v1";
+    private static final String MIRROR = "http://mirror.test/api/v1";
+    private static final String ALICE = "{\"id\":1,\"username\":\"alice\"}";
+
+    @Test
+    public void readsGoToTheFastestServer() {
+        Hosts hosts = new Hosts();
+        hosts.add("primary.test").respond("/api/v1/users/alice", 200, ALICE).delay("/api/v1/users/alice", 80);
+        hosts.add("mirror.test").respond("/api/v1/users/alice", 200, ALICE);
+        GogsAPI api = new GogsAPI(hosts, PRIMARY, MIRROR);
+
+        for(int i = 0; i < 4; i ++) {
+            assertNotNull(api.getUser(new User("alice", null), null));
+        }
+        // servers that were never measured are tried first, then the faster one keeps the reads
+        assertEquals("primary.test mirror.test mirror.test mirror.test", hosts.joined());
+    }
+
+    @Test
+    public void unreachableServersFailOver() {
+        Hosts hosts = new Hosts();
+        hosts.add("primary.test").respond("/api/v1/users/alice", 200, ALICE);
+        hosts.add("mirror.test").respond("/api/v1/users/alice", 200, ALICE);
+        hosts.down.add("primary.test");
+        GogsAPI api = new GogsAPI(hosts, PRIMARY, MIRROR);
+
+        assertNotNull(api.getUser(new User("alice", null), null));
+        assertEquals("primary.test mirror.test", hosts.joined());
+
+        // the failed server is skipped while it backs off
+        hosts.requests.clear();
+        assertNotNull(api.getUser(new User("alice", null), null));
+        assertEquals("mirror.test", hosts.joined());
+
+        // writes are never sent to a mirror
+        hosts.requests.clear();
+        User user = new User("alice", null);
+        user.token = new Token("app", "abc");
+        assertNull(api.createRepo(new Repository("repo", "", false), user));
+        assertEquals("primary.test", hosts.joined());
+    }
+
+    @Test
+    public void credentialsOnlyGoToThePrimary() {
+        Hosts hosts = new Hosts();
+        hosts.add("primary.test").respond("/api/v1/users/alice", 200, ALICE).delay("/api/v1/users/alice", 80)
+                .respond("/api/v1/users/alice/tokens", 200, "[]");
+        hosts.add("mirror.test").respond("/api/v1/users/alice", 200, ALICE)
+                .respond("/api/v1/users/alice/tokens", 200, "[]");
+        GogsAPI api = new GogsAPI(hosts, PRIMARY, MIRROR);
+        // measure both servers so the mirror is the faster one
+        api.getUser(new User("alice", null), null);
+        api.getUser(new User("alice", null), null);
+        hosts.requests.clear();
+
+        User password = new User("alice", "secret");
+        assertNotNull(api.getUser(new User("alice", null), password));
+        assertNotNull(api.listTokens(password));
+        User token = new User("alice", null);
+        token.token = new Token("app", "abc");
+        assertNotNull(api.listTokens(token));
+        assertEquals("primary.test primary.test primary.test", hosts.joined());
+
+        // token authenticated reads may still use the mirror
+        hosts.requests.clear();
+        assertNotNull(api.getUser(new User("alice", null), token));
+        assertEquals("mirror.test", hosts.joined());
+    }
+
+    /**
+     * Routes requests to a fake transport per host and refuses connections to the hosts that are down
+     */
+    private static class Hosts implements Transport {
+        final Map<String, FakeTransport> transports = new HashMap<>();
+        final Set<String> down = new HashSet<>();
+        final List<String> requests = new ArrayList<>();
+
+        FakeTransport add(String host) {
+            FakeTransport transport = new FakeTransport();
+            transports.put(host, transport);
+            return transport;
+        }
+
+        String joined() {
+            StringBuilder sb = new StringBuilder();
+            for(String host:requests) {
+                if(sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(host);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public Exchange newExchange(Request request) throws IOException {
+            final String host = URI.create(request.url).getHost();
+            requests.add(host);
+            if(!down.contains(host)) {
+                return transports.get(host).newExchange(request);
+            }
+            return new Exchange() {
+                @Override
+                public int execute() throws IOException {
+                    throw new ConnectException("Connection refused: " + host);
+                }
+
+                @Override
+                public Map<String, List<String>> getHeaders() {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() throws IOException {
+                    throw new IOException("Not connected");
+                }
+
+                @Override
+                public void abort() {
+                    // nothing in flight
+                }
+
+                @Override
+                public void close() {
+                    // nothing to release
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FairSchedulerTest {
+
+    @Test
+    public void quietAccountsGoAheadOfABacklog() throws Exception {
+        FairScheduler scheduler = new FairScheduler(1);
+        assertTrue(scheduler.acquire(new FairScheduler.Account(1)));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        FairScheduler.Account busy = new FairScheduler.Account(1);
+        for(int i = 0; i < 5; i ++) {
+            threads.add(queue(scheduler, busy, "busy", order));
+        }
+        threads.add(queue(scheduler, new FairScheduler.Account(1), "quiet", order));
+
+        scheduler.release();
+        join(threads);
+        assertEquals(6, order.size());
+        assertTrue(order.indexOf("quiet") <= 1);
+    }
+
+    @Test
+    public void sharesSlotsByWeight() throws Exception {
+        FairScheduler scheduler = new FairScheduler(1);
+        assertTrue(scheduler.acquire(new FairScheduler.Account(1)));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<>();
+        FairScheduler.Account heavy = new FairScheduler.Account(2);
+        FairScheduler.Account light = new FairScheduler.Account(1);
+        for(int i = 0; i < 6; i ++) {
+            threads.add(queue(scheduler, heavy, "heavy", order));
+        }
+        for(int i = 0; i < 6; i ++) {
+            threads.add(queue(scheduler, light, "light", order));
+        }
+
+        scheduler.release();
+        join(threads);
+        assertEquals(12, order.size());
+        assertEquals(4, Collections.frequency(order.subList(0, 6), "heavy"));
+    }
+
+    @Test
+    public void cancelledWaitsGiveUp() throws Exception {
+        final FairScheduler scheduler = new FairScheduler(1);
+        assertTrue(scheduler.acquire(new FairScheduler.Account(1)));
+        final Cancellation cancellation = new Cancellation();
+        final boolean[] acquired = {true};
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Cancellation.Scope scope = cancellation.enter();
+                try {
+                    acquired[0] = scheduler.acquire(new FairScheduler.Account(1));
+                } finally {
+                    scope.close();
+                }
+            }
+        });
+        thread.start();
+        awaitWaiting(scheduler, 1);
+        cancellation.cancel();
+        thread.join(5000);
+        assertFalse(acquired[0]);
+        assertEquals(0, scheduler.getWaitingCount());
+    }
+
+    /**
+     * Starts a thread that acquires a slot, records it and releases it.
+     * Returns once the thread is waiting so the requests are stamped in order
+     */
+    private static Thread queue(final FairScheduler scheduler, final FairScheduler.Account account,
+                                final String name, final List<String> order) throws InterruptedException {
+        int waiting = scheduler.getWaitingCount();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if(scheduler.acquire(account)) {
+                    order.add(name);
+                    scheduler.release();
+                }
+            }
+        });
+        thread.start();
+        awaitWaiting(scheduler, waiting + 1);
+        return thread;
+    }
+
+    private static void awaitWaiting(FairScheduler scheduler, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(scheduler.getWaitingCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, scheduler.getWaitingCount());
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for(Thread thread:threads) {
+            thread.join(5000);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.unfoldingword.gogsclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves canned responses by path so the client can be tested without a server
+ */
+class FakeTransport implements Transport {
+
+    private final Map<String, Integer> codes = new LinkedHashMap<>();
+    private final Map<String, String> responses = new LinkedHashMap<>();
+    private final Map<String, Long> delays = new LinkedHashMap<>();
+    private final Map<String, Map<String, List<String>>> headers = new LinkedHashMap<>();
+    private Handler handler = null;
+    private final List<String> requests = new ArrayList<>();
+    private final List<String> bodies = new ArrayList<>();
+
+    /**
+     * Answers requests for a path
+     * @param path the path relative to the host e.g. "/api/v1/user/repos". A path without a query answers every query.
+     *             It may be preceded by a method e.g. "POST /api/v1/user/repos" to only answer that method
+     * @param code
+     * @param body
+     */
+    synchronized FakeTransport respond(String path, int code, String body) {
+        codes.put(path, code);
+        responses.put(path, body);
+        return this;
+    }
+
+    /**
+     * Answers the requests that no canned response matches
+     * @param handler
+     */
+    synchronized FakeTransport setHandler(Handler handler) {
+        this.handler = handler;
+        return this;
+    }
+
+    /**
+     * Delays the responses for a path
+     * @param path the path relative to the host without the query
+     * @param millis
+     */
+    synchronized FakeTransport delay(String path, long millis) {
+        delays.put(path, millis);
+        return this;
+    }
+
+    /**
+     * Adds a response header for a path
+     * @param path the path relative to the host without the query
+     * @param name
+     * @param value
+     */
+    synchronized FakeTransport header(String path, String name, String value) {
+        Map<String, List<String>> pathHeaders = headers.get(path);
+        if(pathHeaders == null) {
+            pathHeaders = new LinkedHashMap<>();
+            headers.put(path, pathHeaders);
+        }
+        pathHeaders.put(name, Collections.singletonList(value));
+        return this;
+    }
+
+    /**
+     * Returns the method and path of every request in the order they were made
+     * @return
+     */
+    synchronized List<String> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * Returns the body of every request in the order they were made. Requests without a body are empty
+     * @return
+     */
+    synchronized List<String> getRequestBodies() {
+        return new ArrayList<>(bodies);
+    }
+
+    @Override
+    public Exchange newExchange(final Request request) throws IOException {
+        String path = RecordedExchange.pathOf(request.url);
+        int query = path.indexOf('?');
+        final String key = query == -1 ? path : path.substring(0, query);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        request.writeBody(sent);
+        String methodKey = request.method + " " + key;
+        int code;
+        String body;
+        final long delay;
+        final Map<String, List<String>> responseHeaders;
+        synchronized (this) {
+            requests.add(methodKey);
+            bodies.add(sent.toString("UTF-8"));
+            String match = key;
+            for(String candidate:new String[]{request.method + " " + path, path, methodKey}) {
+                if(codes.containsKey(candidate)) {
+                    match = candidate;
+                    break;
+                }
+            }
+            code = codes.containsKey(match) ? codes.get(match) : 404;
+            body = responses.containsKey(match) ? responses.get(match) : "";
+            Reply reply = !codes.containsKey(match) && handler != null ? handler.handle(request.method, path) : null;
+            if(reply != null) {
+                code = reply.code;
+                body = reply.body;
+            }
+            delay = delays.containsKey(key) ? delays.get(key) : 0;
+            responseHeaders = headers.containsKey(key)
+                    ? new LinkedHashMap<>(headers.get(key)) : Collections.<String, List<String>>emptyMap();
+        }
+        final int responseCode = code;
+        final String responseBody = body;
+        return new Exchange() {
+            @Override
+            public int execute() throws IOException {
+                if(delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                return responseCode;
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return responseHeaders;
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                if(responseCode >= 400) {
+                    throw new FileNotFoundException(key);
+                }
+                return new ByteArrayInputStream(responseBody.getBytes("UTF-8"));
+            }
+
+            @Override
+            public void abort() {
+                // nothing in flight
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+    /**
+     * Computes responses for requests without a canned response
+     */
+    interface Handler {
+        /**
+         * @param method
+         * @param path the path relative to the host including the query
+         * @return the response or null to answer 404
+         */
+        Reply handle(String method, String path);
+    }
+
+    static class Reply {
+        final int code;
+        final String body;
+
+        Reply(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyWindowTest {
+
+    @Test
+    public void needsEnoughSamples() {
+        LatencyWindow window = new LatencyWindow();
+        for(int i = 0; i < 15; i ++) {
+            window.record(100);
+        }
+        assertEquals(-1, window.getPercentile());
+        window.record(100);
+        assertEquals(100, window.getPercentile());
+    }
+
+    @Test
+    public void returnsTheHighPercentile() {
+        LatencyWindow window = new LatencyWindow();
+        // the percentile is recalculated every 8 samples so 104 ends on a recalculation
+        for(int i = 1; i <= 104; i ++) {
+            window.record(i);
+        }
+        assertEquals(103, window.getPercentile());
+        window.record(1000);
+        assertEquals(103, window.getPercentile());
+    }
+
+    @Test
+    public void forgetsOldSamples() {
+        LatencyWindow window = new LatencyWindow();
+        for(int i = 0; i < 128; i ++) {
+            window.record(5000);
+        }
+        assertEquals(5000, window.getPercentile());
+        for(int i = 0; i < 128; i ++) {
+            window.record(50);
+        }
+        assertEquals(50, window.getPercentile());
+    }
+
+    @Test
+    public void clampsNegativeSamples() {
+        LatencyWindow window = new LatencyWindow();
+        for(int i = 0; i < 16; i ++) {
+            window.record(-10);
+        }
+        assertEquals(0, window.getPercentile());
+    }
+}
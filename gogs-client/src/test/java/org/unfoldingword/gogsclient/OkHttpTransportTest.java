@@ -0,0 +1,177 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OkHttpTransportTest {
+
+    private MockWebServer server;
+    private OkHttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        transport = new OkHttpTransport();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void mapsHeadersAndBodies() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(201)
+                .addHeader("X-Total-Count", "3")
+                .setBody("{\"id\":1}"));
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "token abc");
+        byte[] json = "{\"name\":\"repo\"}".getBytes("UTF-8");
+        Transport.Exchange exchange = transport.newExchange(request("/api/v1/user/repos", "POST", headers,
+                JSONBody.wrap(json), 5000));
+        try {
+            assertEquals(201, exchange.execute());
+            Map<String, List<String>> responseHeaders = exchange.getHeaders();
+            assertEquals("3", responseHeaders.get("x-total-count").get(0));
+            assertEquals("{\"id\":1}", read(exchange.getBody()));
+        } finally {
+            exchange.close();
+        }
+
+        RecordedRequest recorded = server.takeRequest();
+        assertEquals("POST", recorded.getMethod());
+        assertEquals("/api/v1/user/repos", recorded.getPath());
+        assertEquals("token abc", recorded.getHeader("Authorization"));
+        assertTrue(recorded.getHeader("Content-Type").startsWith("application/json"));
+        assertEquals(String.valueOf(json.length), recorded.getHeader("Content-Length"));
+        assertEquals("{\"name\":\"repo\"}", recorded.getBody().readUtf8());
+    }
+
+    @Test
+    public void errorBodiesMatchHttpURLConnection() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404).setBody("missing"));
+        server.enqueue(new MockResponse().setResponseCode(500).setBody("broken"));
+
+        Transport.Exchange exchange = transport.newExchange(request("/missing", "GET", null, null, 5000));
+        try {
+            assertEquals(404, exchange.execute());
+            exchange.getBody();
+            fail("a 404 body was exposed");
+        } catch (FileNotFoundException e) {
+            // expected
+        } finally {
+            exchange.close();
+        }
+
+        exchange = transport.newExchange(request("/broken", "GET", null, null, 5000));
+        try {
+            assertEquals(500, exchange.execute());
+            exchange.getBody();
+            fail("a 500 body was exposed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("500"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Test
+    public void timeoutsApplyPerCall() throws Exception {
+        server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(1, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(1, TimeUnit.SECONDS));
+
+        Transport.Exchange exchange = transport.newExchange(request("/slow", "GET", null, null, 200));
+        long start = System.currentTimeMillis();
+        try {
+            exchange.execute();
+            fail("the short read timeout was not applied");
+        } catch (SocketTimeoutException e) {
+            assertTrue(System.currentTimeMillis() - start < 900);
+        } finally {
+            exchange.close();
+        }
+
+        // the shared client is not left with the previous call's timeout
+        exchange = transport.newExchange(request("/slow", "GET", null, null, 5000));
+        try {
+            assertEquals(200, exchange.execute());
+            assertEquals("slow", read(exchange.getBody()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Test
+    public void abortingCancelsTheCall() throws Exception {
+        // the server never answers so only cancelling ends the call
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        final Transport.Exchange exchange = transport.newExchange(request("/late", "GET", null, null, 10000));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    exchange.execute();
+                } catch (Throwable t) {
+                    failure.set(t);
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        thread.start();
+        server.takeRequest(2, TimeUnit.SECONDS);
+        exchange.abort();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertNotNull(failure.get());
+        assertTrue(failure.get() instanceof IOException);
+        exchange.close();
+    }
+
+    private Transport.Request request(String path, String method, Map<String, String> headers, JSONBody body,
+                                      int readTimeout) {
+        if(headers == null) {
+            headers = new HashMap<>();
+        }
+        return new Transport.Request(server.url(path).toString(), method, headers, body, 5000, readTimeout);
+    }
+
+    private static String read(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return out.toString("UTF-8");
+    }
+}
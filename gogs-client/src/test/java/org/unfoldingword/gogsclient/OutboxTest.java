@@ -0,0 +1,160 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class OutboxTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Outbox.Authenticator admin = new Outbox.Authenticator() {
+        @Override
+        public User getUser(String username) {
+            return new User(username, "admin-password");
+        }
+    };
+
+    @Test
+    public void journalRoundTrip() throws Exception {
+        File journal = folder.newFile("outbox.json");
+        GogsAPI api = new GogsAPI(new FakeTransport(), API);
+        Outbox outbox = new Outbox(api, journal, admin);
+        User owner = new User("owner", null);
+        assertTrue(outbox.createRepo(new Repository("first", "a repo", false), owner));
+        assertTrue(outbox.deleteRepo(new Repository("second", "", false), owner));
+        User edited = new User("edited", null);
+        edited.fullName = "Edited User";
+        assertTrue(outbox.editUser(edited, owner));
+        assertTrue(outbox.createPublicKey(new PublicKey("laptop", "ssh-rsa AAAA"), owner));
+
+        List<Outbox.Operation> loaded = new Outbox(api, journal, admin).getPending();
+        assertEquals(4, loaded.size());
+        assertEquals(Outbox.Type.CREATE_REPO, loaded.get(0).getType());
+        assertEquals("first", loaded.get(0).getRepository().getName());
+        assertEquals("a repo", loaded.get(0).getRepository().getDescription());
+        assertEquals(Outbox.Type.DELETE_REPO, loaded.get(1).getType());
+        assertEquals(Outbox.Type.EDIT_USER, loaded.get(2).getType());
+        assertEquals("Edited User", loaded.get(2).getUser().fullName);
+        assertEquals(Outbox.Type.CREATE_PUBLIC_KEY, loaded.get(3).getType());
+        assertEquals("ssh-rsa AAAA", loaded.get(3).getPublicKey().getKey());
+        for(Outbox.Operation op:loaded) {
+            assertEquals("owner", op.getUsername());
+        }
+    }
+
+    @Test
+    public void cancellingOperationsAreCoalesced() throws Exception {
+        Outbox outbox = new Outbox(new GogsAPI(new FakeTransport(), API), folder.newFile("outbox.json"), admin);
+        User owner = new User("owner", null);
+        outbox.createRepo(new Repository("repo", "", false), owner);
+        outbox.createRepo(new Repository("repo", "", false), owner);
+        assertEquals(1, outbox.size());
+        outbox.deleteRepo(new Repository("repo", "", false), owner);
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void passwordsAreNotJournaled() throws Exception {
+        File journal = folder.newFile("outbox.json");
+        FakeTransport transport = new FakeTransport().respond("/api/v1/admin/users/edited", 200,
+                "{\"id\":2,\"username\":\"edited\"}");
+        GogsAPI api = new GogsAPI(transport, API);
+        User edited = new User("edited", "new-secret");
+        new Outbox(api, journal, admin).editUser(edited, new User("admin", null));
+        assertFalse(read(journal).contains("new-secret"));
+
+        // without a way to get the password back the edit stays queued
+        Outbox reloaded = new Outbox(api, journal, admin);
+        assertEquals(1, reloaded.flush());
+        assertTrue(transport.getRequests().isEmpty());
+
+        Outbox provided = new Outbox(api, journal, new PasswordAuthenticator());
+        User queued = provided.getPending().get(0).getUser();
+        assertEquals(0, provided.flush());
+        assertEquals(1, transport.getRequests().size());
+        assertTrue(transport.getRequestBodies().get(0).contains("new-secret"));
+        // the password is only set on the copy that was sent
+        assertTrue(queued.password == null || queued.password.isEmpty());
+    }
+
+    @Test
+    public void laterEditsKeepAnEarlierPasswordChange() throws Exception {
+        File journal = folder.newFile("outbox.json");
+        GogsAPI api = new GogsAPI(new FakeTransport(), API);
+        Outbox outbox = new Outbox(api, journal, admin);
+        User admin = new User("admin", null);
+        outbox.editUser(new User("edited", "new-secret"), admin);
+        User renamed = new User("edited", null);
+        renamed.fullName = "New Name";
+        outbox.editUser(renamed, admin);
+        assertEquals(1, outbox.size());
+        assertTrue(read(journal).contains("password_changed"));
+    }
+
+    @Test
+    public void coalescedEditsSendTheEarlierPassword() throws Exception {
+        File journal = folder.newFile("outbox.json");
+        FakeTransport transport = new FakeTransport().respond("/api/v1/admin/users/edited", 200,
+                "{\"id\":2,\"username\":\"edited\"}");
+        GogsAPI api = new GogsAPI(transport, API);
+        // no password provider so the password only lives in memory
+        Outbox outbox = new Outbox(api, journal, admin);
+        User admin = new User("admin", null);
+        outbox.editUser(new User("edited", "new-secret"), admin);
+        User renamed = new User("edited", null);
+        renamed.fullName = "New Name";
+        outbox.editUser(renamed, admin);
+
+        assertEquals(0, outbox.flush());
+        assertEquals(1, transport.getRequestBodies().size());
+        String body = transport.getRequestBodies().get(0);
+        assertTrue(body.contains("new-secret"));
+        assertTrue(body.contains("New Name"));
+        assertNull(renamed.password);
+    }
+
+    private static String read(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        InputStreamReader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            char[] buffer = new char[4096];
+            int read;
+            while((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return sb.toString();
+    }
+
+    private static class PasswordAuthenticator implements Outbox.Authenticator, Outbox.PasswordProvider {
+        @Override
+        public User getUser(String username) {
+            return new User(username, "admin-password");
+        }
+
+        @Override
+        public String getNewPassword(String username) {
+            return "new-secret";
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+    @Test
+    public void allowsABurst() {
+        RateLimiter limiter = new RateLimiter(1, 3);
+        for(int i = 0; i < 3; i ++) {
+            assertEquals(0, limiter.reserve());
+        }
+        long wait = limiter.reserve();
+        assertTrue(wait > 0 && wait <= 1000);
+        // each reservation waits for its own token
+        wait = limiter.reserve();
+        assertTrue(wait > 1000 && wait <= 2000);
+    }
+
+    @Test
+    public void refundsUnsentRequests() {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        assertEquals(0, limiter.reserve());
+        assertTrue(limiter.reserve() > 0);
+        limiter.refund();
+        limiter.refund();
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    public void refillsOverTime() throws Exception {
+        RateLimiter limiter = new RateLimiter(100, 1);
+        assertEquals(0, limiter.reserve());
+        Thread.sleep(50);
+        assertEquals(0, limiter.reserve());
+    }
+}
@@ -0,0 +1,75 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RecordReplayTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysRecordedResponsesInOrder() throws Exception {
+        File file = folder.newFile("traffic.rec");
+        FakeTransport server = new FakeTransport()
+                .respond("/api/v1/users/alice", 200, "{\"id\":1,\"username\":\"alice\",\"full_name\":\"Alice\"}")
+                .header("/api/v1/users/alice", "Set-Cookie", "session=secret")
+                .header("/api/v1/users/alice", "X-Request", "1");
+        RecordingTransport recorder = new RecordingTransport(server, file);
+        GogsAPI api = new GogsAPI(recorder, "http://gogs.test/api/v1");
+        User admin = new User("admin", "secret");
+        assertEquals("Alice", api.getUser(new User("alice", null), admin).fullName);
+        server.respond("/api/v1/users/alice", 200, "{\"id\":1,\"username\":\"alice\",\"full_name\":\"Alice Smith\"}");
+        assertEquals("Alice Smith", api.getUser(new User("alice", null), admin).fullName);
+        // requests that never got a response are not recorded
+        assertNull(api.getUser(new User("bob", null), admin));
+        recorder.close();
+        assertEquals(3, recorder.getCount());
+
+        ReplayTransport replay = new ReplayTransport(file, 0);
+        assertEquals(3, replay.getCount());
+        // the recording is matched by path so it can be replayed against another host
+        GogsAPI offline = new GogsAPI(replay, "https://elsewhere.test/api/v1");
+        assertEquals("Alice", offline.getUser(new User("alice", null), admin).fullName);
+        Response response = offline.getLastResponse();
+        assertEquals("1", response.getHeader("X-Request"));
+        assertEquals(RecordedExchange.REDACTED, response.getHeader("Set-Cookie"));
+        assertEquals("Alice Smith", offline.getUser(new User("alice", null), admin).fullName);
+        // and starts over once the recordings run out
+        assertEquals("Alice", offline.getUser(new User("alice", null), admin).fullName);
+        assertNull(offline.getUser(new User("bob", null), admin));
+        assertEquals(404, offline.getLastResponse().code);
+    }
+
+    @Test
+    public void rejectsUnrecordedRequests() throws Exception {
+        File file = folder.newFile("empty.rec");
+        new RecordingTransport(new FakeTransport(), file).close();
+        ReplayTransport replay = new ReplayTransport(file, 0);
+        assertEquals(0, replay.getCount());
+        GogsAPI api = new GogsAPI(replay, "http://gogs.test/api/v1");
+        assertNull(api.getUser(new User("alice", null), null));
+        assertTrue(api.getLastResponse().exception instanceof IOException);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFilesThatAreNotRecordings() throws Exception {
+        File file = folder.newFile("other.rec");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not a recording".getBytes("UTF-8"));
+        out.close();
+        new ReplayTransport(file, 0);
+    }
+}
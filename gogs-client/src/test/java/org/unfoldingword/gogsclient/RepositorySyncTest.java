@@ -0,0 +1,125 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RepositorySyncTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    @Test
+    public void splitsObjectsWithoutParsing() throws Exception {
+        List<String> items = RepositorySync.splitObjects(
+                " [ {\"id\":1,\"description\":\"a } \\\" [ brace\"}, 7, {\"id\":2,\"owner\":{\"id\":3}} ] ");
+        assertEquals(2, items.size());
+        assertEquals("{\"id\":1,\"description\":\"a } \\\" [ brace\"}", items.get(0));
+        assertEquals("{\"id\":2,\"owner\":{\"id\":3}}", items.get(1));
+        assertEquals(0, RepositorySync.splitObjects("[]").size());
+    }
+
+    @Test
+    public void rejectsMalformedListings() {
+        String[] bodies = {"{\"id\":1}", "[{\"id\":1}", "[] trailing", ""};
+        for(String body:bodies) {
+            try {
+                RepositorySync.splitObjects(body);
+                throw new AssertionError("accepted " + body);
+            } catch (org.json.JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void reportsOnlyChangedRepositories() {
+        FakeTransport transport = new FakeTransport().respond("/api/v1/user/repos", 200,
+                "[{\"id\":1,\"name\":\"one\"},{\"id\":2,\"name\":\"two\"}]");
+        RepositorySync sync = new RepositorySync(new GogsAPI(transport, API), new User("alice", "secret"));
+        RecordingListener events = new RecordingListener();
+        sync.setListener(events);
+
+        assertTrue(sync.sync());
+        assertEquals(2, events.size());
+        events.clear();
+
+        transport.respond("/api/v1/user/repos", 200,
+                "[{\"id\":2,\"name\":\"two\"},{\"id\":1,\"name\":\"uno\"},{\"id\":4,\"name\":\"four\"}]");
+        assertTrue(sync.sync());
+        assertEquals(2, events.size());
+        assertTrue(events.contains("modified one uno"));
+        assertTrue(events.contains("added four"));
+        events.clear();
+
+        transport.respond("/api/v1/user/repos", 200, "[{\"id\":4,\"name\":\"four\"}]");
+        assertTrue(sync.sync());
+        assertEquals(2, events.size());
+        assertTrue(events.contains("removed two"));
+        assertTrue(events.contains("removed uno"));
+        assertEquals(1, sync.getRepositories().size());
+
+        // a snapshot restored from json keeps recognising unchanged repositories
+        RepositorySync restored = new RepositorySync(new GogsAPI(transport, API), new User("alice", "secret"));
+        restored.load(sync.toJSON());
+        events.clear();
+        transport.respond("/api/v1/user/repos", 200, "[{\"id\":4,\"name\":\"four\"},{\"id\":5,\"name\":\"five\"}]");
+        restored.setListener(events);
+        assertTrue(restored.sync());
+        assertEquals(1, events.size());
+        assertTrue(events.contains("added five"));
+    }
+
+    @Test
+    public void deletionsOnlyDropTheUsersRepository() {
+        FakeTransport transport = new FakeTransport()
+                .respond("/api/v1/user/repos", 200, "[{\"id\":1,\"name\":\"shared\",\"full_name\":\"alice/shared\"},"
+                        + "{\"id\":2,\"name\":\"shared\",\"full_name\":\"team/shared\",\"owner\":{\"id\":9,\"username\":\"team\"}}]")
+                .respond("DELETE /api/v1/repos/alice/shared", 204, "");
+        User alice = new User("alice", "secret");
+        GogsAPI api = new GogsAPI(transport, API);
+        RepositorySync sync = new RepositorySync(api, alice);
+        assertTrue(sync.sync());
+        RecordingListener events = new RecordingListener();
+        sync.setListener(events);
+
+        assertTrue(api.deleteRepo(new Repository("shared", "", false), alice));
+        assertEquals(1, events.size());
+        assertEquals(1, sync.getRepositories().size());
+        assertEquals(2, sync.getRepositories().get(0).getId());
+    }
+
+    @Test
+    public void malformedListingsFailTheSync() {
+        FakeTransport transport = new FakeTransport().respond("/api/v1/user/repos", 200, "[{\"id\":1");
+        RepositorySync sync = new RepositorySync(new GogsAPI(transport, API), new User("alice", "secret"));
+        assertFalse(sync.sync());
+        assertEquals(0, sync.getRepositories().size());
+    }
+
+    private static class RecordingListener extends ArrayList<String> implements RepositorySync.Listener {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void onRepositoryAdded(Repository repo) {
+            add("added " + repo.getName());
+        }
+
+        @Override
+        public void onRepositoryModified(Repository oldRepo, Repository newRepo) {
+            add("modified " + oldRepo.getName() + " " + newRepo.getName());
+        }
+
+        @Override
+        public void onRepositoryRemoved(Repository repo) {
+            add("removed " + repo.getName());
+        }
+    }
+}
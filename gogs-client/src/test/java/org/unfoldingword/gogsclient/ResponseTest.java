@@ -0,0 +1,66 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseTest {
+
+    @Test
+    public void classifiesFailures() {
+        Object[][] cases = {
+                {200, null, null},
+                {201, null, null},
+                {204, null, null},
+                {304, null, null},
+                {401, new IOException("Server returned HTTP response code: 401"), ErrorType.AUTH},
+                {403, null, ErrorType.AUTH},
+                {404, new FileNotFoundException(), ErrorType.NOT_FOUND},
+                {409, null, ErrorType.CONFLICT},
+                {422, null, ErrorType.CONFLICT},
+                {400, null, ErrorType.REQUEST},
+                {429, null, ErrorType.REQUEST},
+                {500, null, ErrorType.SERVER},
+                {503, new IOException(), ErrorType.SERVER},
+                {-1, new ConnectException(), ErrorType.NETWORK},
+                {-1, new SocketTimeoutException(), ErrorType.TIMEOUT},
+                {-1, new CancellationException(), ErrorType.CANCELLED},
+                {-1, null, ErrorType.NETWORK},
+                // the body failed after the status arrived
+                {200, new IOException("unexpected end of stream"), ErrorType.NETWORK},
+                {200, new SocketTimeoutException(), ErrorType.TIMEOUT},
+                {200, new ResponseTooLargeException(1024), ErrorType.TOO_LARGE},
+                {-1, new ResponseTooLargeException(1024), ErrorType.TOO_LARGE},
+        };
+        for(Object[] c:cases) {
+            Response response = new Response((Integer)c[0], null, (Exception)c[1]);
+            String description = c[0] + " " + c[1];
+            assertEquals(description, c[2], response.getError());
+            assertEquals(description, c[2] != null, response.isError());
+        }
+    }
+
+    @Test
+    public void parseFailuresAreErrors() {
+        Response response = new Response(200, "{", null);
+        assertFalse(response.isError());
+        Exception cause = new IllegalStateException("Unterminated object");
+        response.parseFailed(cause);
+        assertEquals(ErrorType.PARSE, response.getError());
+        assertEquals(cause, response.getErrorCause());
+
+        // a failed request keeps its own error
+        Response failed = new Response(500, "{", null);
+        failed.parseFailed(cause);
+        assertEquals(ErrorType.SERVER, failed.getError());
+        assertTrue(failed.isError());
+    }
+}
@@ -0,0 +1,98 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlowCallLogTest {
+
+    @Test
+    public void recordsCallsOverTheThreshold() {
+        SlowCallLog log = new SlowCallLog(10);
+        log.setThreshold(1000);
+        log.onResponse(response("/fast", 200, 999, 0));
+        log.onResponse(response("/slow", 200, 600, 400));
+        assertEquals(1, log.getEntries().size());
+        assertEquals("/slow", log.getEntries().get(0).endpoint);
+        assertEquals(1000, log.getEntries().get(0).getTotalMillis());
+
+        // parsing can make a call slow after the transfer
+        Response parsed = response("/parsed", 200, 800, 0);
+        log.onResponse(parsed);
+        assertEquals(1, log.getEntries().size());
+        log.onParsed(parsed, 300);
+        assertEquals(2, log.getEntries().size());
+        assertEquals(300, log.getEntries().get(1).getParseMillis());
+
+        // a negative threshold stops recording slow calls
+        log.setThreshold(-1);
+        log.onResponse(response("/slower", 200, 5000, 0));
+        assertEquals(2, log.getEntries().size());
+    }
+
+    @Test
+    public void recordsLargeCalls() {
+        SlowCallLog log = new SlowCallLog(10);
+        log.setThreshold(-1);
+        log.onResponse(response("/large", 200, 10, 0, 512, 1024 * 1024));
+        assertEquals(0, log.getEntries().size());
+
+        log.setSizeThreshold(1024 * 1024);
+        log.onResponse(response("/small", 200, 10, 0, 512, 1000));
+        log.onResponse(response("/large", 200, 10, 0, 512, 1024 * 1024 - 512));
+        assertEquals(1, log.getEntries().size());
+        assertEquals("/large", log.getEntries().get(0).endpoint);
+    }
+
+    @Test
+    public void keepsTheMostRecentCalls() {
+        SlowCallLog log = new GogsAPI(new FakeTransport(), "http://gogs.test/api/v1").getSlowCallLog();
+        log.setThreshold(0);
+        for(int i = 0; i < 120; i ++) {
+            log.onResponse(response("/call/" + i, 200, 1, 0));
+        }
+        List<SlowCallLog.Entry> entries = log.getEntries();
+        assertEquals(50, entries.size());
+        assertEquals("/call/70", entries.get(0).endpoint);
+        assertEquals("/call/119", entries.get(49).endpoint);
+
+        log.clear();
+        assertEquals(0, log.getEntries().size());
+    }
+
+    @Test
+    public void dumpsOneLinePerCall() throws Exception {
+        SlowCallLog log = new SlowCallLog(10);
+        log.setThreshold(100);
+        log.onResponse(response("/user/repos", 200, 2000, 500, 0, 4096));
+        log.onResponse(response("/users/{}", 404, 150, 0));
+        StringBuilder out = new StringBuilder();
+        log.dump(out);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].contains("GET /user/repos 200 total=2500ms connect=? firstByte=2000ms download=500ms"));
+        assertTrue(lines[0], lines[0].contains("sent=0B received=4096B"));
+        assertTrue(lines[1], lines[1].contains("GET /users/{} 404 NOT_FOUND total=150ms"));
+    }
+
+    private static Response response(String endpoint, int code, long firstByteMillis, long downloadMillis) {
+        return response(endpoint, code, firstByteMillis, downloadMillis, 0, 0);
+    }
+
+    private static Response response(String endpoint, int code, long firstByteMillis, long downloadMillis,
+                                     long bytesSent, long bytesReceived) {
+        Response response = new Response(code, null, null);
+        response.endpoint = endpoint;
+        Response.Timing timing = new Response.Timing("GET");
+        timing.firstByteMillis = firstByteMillis;
+        timing.downloadMillis = downloadMillis;
+        timing.bytesSent = bytesSent;
+        timing.bytesReceived = bytesReceived;
+        response.timing = timing;
+        return response;
+    }
+}
@@ -0,0 +1,87 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpillBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsSmallBodiesInMemory() throws Exception {
+        File dir = folder.newFolder();
+        SpillBuffer buffer = new SpillBuffer(1024, dir, 4096);
+        assertFalse(buffer.hasBody());
+        assertEquals("[\"ü\"]", buffer.read(stream("[\"ü\"]")));
+        assertTrue(buffer.hasBody());
+        assertEquals("[\"ü\"]", readAll(buffer));
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void spillsLargeBodiesToAFile() throws Exception {
+        File dir = folder.newFolder();
+        String body = repeat("[\"ü€\"],", 2000);
+        SpillBuffer buffer = new SpillBuffer(1024, dir, body.length() * 4);
+        assertNull(buffer.read(stream(body)));
+        assertTrue(buffer.hasBody());
+        assertEquals(1, dir.list().length);
+        assertEquals(body, readAll(buffer));
+        buffer.delete();
+        assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void removesTheFileWhenTheBodyIsTooLarge() throws Exception {
+        File dir = folder.newFolder();
+        SpillBuffer buffer = new SpillBuffer(1024, dir, 4096);
+        try {
+            buffer.read(stream(repeat("x", 5000)));
+            fail();
+        } catch (ResponseTooLargeException e) {
+            assertEquals(4096, e.getLimit());
+        }
+        assertFalse(buffer.hasBody());
+        assertEquals(0, dir.list().length);
+    }
+
+    private static ByteArrayInputStream stream(String content) throws IOException {
+        return new ByteArrayInputStream(content.getBytes("UTF-8"));
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < times; i ++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    private static String readAll(SpillBuffer buffer) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Reader reader = buffer.openReader();
+        try {
+            char[] chars = new char[512];
+            int read;
+            while((read = reader.read(chars)) != -1) {
+                sb.append(chars, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,265 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class StreamPublisherTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+    private static final String REPOS = "[{\"id\":1,\"name\":\"a\",\"full_name\":\"u/a\"},"
+            + "{\"id\":2,\"name\":\"b\",\"full_name\":\"u/b\"},"
+            + "{\"id\":3,\"name\":\"c\",\"full_name\":\"u/c\"}]";
+
+    @Test
+    public void waitingSubscriberDoesNotHoldThePool() throws Exception {
+        FakeTransport transport = new FakeTransport().respond("/api/v1/user/repos", 200, REPOS);
+        ClientPool pool = new ClientPool(transport, 1, API);
+        final GogsAPI first = pool.getClient("first");
+        final GogsAPI second = pool.getClient("second");
+
+        CollectingSubscriber<Repository> subscriber = new CollectingSubscriber<>(1);
+        first.streamRepos(new User("first", "pass")).subscribe(subscriber);
+        assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+
+        final List<Repository> repos = new ArrayList<>();
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                repos.addAll(second.listRepos(new User("second", "pass")));
+            }
+        });
+        other.start();
+        other.join(5000);
+        assertFalse("a subscriber without demand blocked the pool", other.isAlive());
+        assertEquals(3, repos.size());
+        assertEquals(1, subscriber.items.size());
+
+        subscriber.subscription.request(10);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, subscriber.items.size());
+        assertTrue(subscriber.completed);
+        pool.getDispatcher().shutdown();
+    }
+
+    @Test
+    public void waitingSubscriberDoesNotHoldTheDispatcher() throws Exception {
+        FakeTransport transport = new FakeTransport().respond("/api/v1/user/repos", 200, REPOS);
+        GogsAPI api = new GogsAPI(transport, API);
+        api.setDispatcher(new Dispatcher(1));
+        User user = new User("user", "pass");
+
+        CollectingSubscriber<Repository> waiting = new CollectingSubscriber<>(1);
+        api.streamRepos(user).subscribe(waiting);
+        assertTrue(waiting.received.await(5, TimeUnit.SECONDS));
+
+        CollectingSubscriber<Repository> eager = new CollectingSubscriber<>(Long.MAX_VALUE);
+        api.streamRepos(user).subscribe(eager);
+        assertTrue(eager.done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, eager.items.size());
+        assertEquals(1, waiting.items.size());
+        api.getDispatcher().shutdown();
+    }
+
+    @Test
+    public void pagesAreRequestedOnlyWhenWanted() throws Exception {
+        FakeTransport transport = new FakeTransport().respond("/api/v1/repos/search", 200,
+                "{\"ok\":true,\"data\":" + REPOS + "}");
+        GogsAPI api = new GogsAPI(transport, API);
+
+        // full pages keep coming back the same so paging stops once a repeat is seen
+        CollectingSubscriber<Repository> subscriber = new CollectingSubscriber<>(2);
+        api.streamSearchRepos("x", 0, 3).subscribe(subscriber);
+        assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, transport.getRequests().size());
+        assertEquals(2, subscriber.items.size());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, subscriber.items.size());
+        assertEquals(2, transport.getRequests().size());
+        api.getDispatcher().shutdown();
+    }
+
+    @Test
+    public void cappedPagesKeepPaging() throws Exception {
+        // the server returns at most two items however many are asked for
+        String search = "/api/v1/repos/search?q=x&uid=0&limit=100&page=";
+        FakeTransport transport = new FakeTransport()
+                .respond(search + "1", 200, "{\"ok\":true,\"data\":[{\"id\":1},{\"id\":2}]}")
+                .respond(search + "2", 200, "{\"ok\":true,\"data\":[{\"id\":3},{\"id\":4}]}")
+                .respond(search + "3", 200, "{\"ok\":true,\"data\":[{\"id\":5}]}");
+        GogsAPI api = new GogsAPI(transport, API);
+
+        CollectingSubscriber<Repository> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        api.streamSearchRepos("x", 0, 100).subscribe(subscriber);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+        assertEquals(5, subscriber.items.size());
+        // the short third page ends the listing without asking for a fourth
+        assertEquals(3, transport.getRequests().size());
+        api.getDispatcher().shutdown();
+    }
+
+    @Test
+    public void emptyPagesEndTheListing() throws Exception {
+        String search = "/api/v1/repos/search?q=x&uid=0&limit=100&page=";
+        FakeTransport transport = new FakeTransport()
+                .respond(search + "1", 200, "{\"ok\":true,\"data\":[{\"id\":1},{\"id\":2}]}")
+                .respond(search + "2", 200, "{\"ok\":true,\"data\":[]}");
+        GogsAPI api = new GogsAPI(transport, API);
+
+        CollectingSubscriber<Repository> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        api.streamSearchRepos("x", 0, 100).subscribe(subscriber);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+        assertEquals(2, subscriber.items.size());
+        assertEquals(2, transport.getRequests().size());
+        api.getDispatcher().shutdown();
+    }
+
+    @Test
+    public void itemsAreEmittedBeforeThePageIsRead() throws Exception {
+        final CountDownLatch firstEmitted = new CountDownLatch(1);
+        final boolean[] waitedForTheFirstItem = {false};
+        Transport transport = new Transport() {
+            @Override
+            public Exchange newExchange(Request request) {
+                return new Exchange() {
+                    @Override
+                    public int execute() {
+                        return 200;
+                    }
+
+                    @Override
+                    public Map<String, List<String>> getHeaders() {
+                        return Collections.emptyMap();
+                    }
+
+                    @Override
+                    public InputStream getBody() throws IOException {
+                        // the rest of the page only arrives once the first item has been emitted
+                        InputStream first = new ByteArrayInputStream("[{\"id\":1},".getBytes("UTF-8"));
+                        InputStream rest = new ByteArrayInputStream("{\"id\":2}]".getBytes("UTF-8")) {
+                            @Override
+                            public synchronized int read(byte[] buffer, int offset, int length) {
+                                if(pos == 0) {
+                                    try {
+                                        waitedForTheFirstItem[0] = firstEmitted.await(5, TimeUnit.SECONDS);
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                    }
+                                }
+                                return super.read(buffer, offset, length);
+                            }
+                        };
+                        return new SequenceInputStream(first, rest);
+                    }
+
+                    @Override
+                    public void abort() {
+                        // nothing in flight
+                    }
+
+                    @Override
+                    public void close() {
+                        // nothing to release
+                    }
+                };
+            }
+        };
+        GogsAPI api = new GogsAPI(transport, API);
+        CollectingSubscriber<Repository> subscriber = new CollectingSubscriber<Repository>(Long.MAX_VALUE) {
+            @Override
+            public synchronized void onNext(Repository item) {
+                super.onNext(item);
+                firstEmitted.countDown();
+            }
+        };
+        api.streamRepos(new User("user", "pass")).subscribe(subscriber);
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertTrue(waitedForTheFirstItem[0]);
+        assertEquals(2, subscriber.items.size());
+        api.getDispatcher().shutdown();
+    }
+
+    @Test
+    public void oversizedBodiesFail() throws Exception {
+        FakeTransport transport = new FakeTransport().respond("/api/v1/user/repos", 200, REPOS);
+        GogsAPI api = new GogsAPI(transport, API);
+        api.setMaxResponseSize("/user/repos", 100);
+
+        CollectingSubscriber<Repository> subscriber = new CollectingSubscriber<>(Long.MAX_VALUE);
+        api.streamRepos(new User("user", "pass")).subscribe(subscriber);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof ApiException);
+        assertEquals(ErrorType.TOO_LARGE, ((ApiException)subscriber.error).getError());
+        api.getDispatcher().shutdown();
+    }
+
+    @Test
+    public void errorsAreSignalled() throws Exception {
+        GogsAPI api = new GogsAPI(new FakeTransport(), API);
+        CollectingSubscriber<Repository> subscriber = new CollectingSubscriber<>(1);
+        api.streamRepos(new User("user", "pass")).subscribe(subscriber);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof ApiException);
+        assertEquals(ErrorType.NOT_FOUND, ((ApiException)subscriber.error).getError());
+        api.getDispatcher().shutdown();
+    }
+
+    private static class CollectingSubscriber<T> implements Subscriber<T> {
+        final List<T> items = new ArrayList<>();
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        private final long initialDemand;
+        volatile Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        CollectingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialDemand);
+        }
+
+        @Override
+        public synchronized void onNext(T item) {
+            items.add(item);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+}
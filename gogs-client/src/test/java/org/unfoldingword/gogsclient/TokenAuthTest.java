@@ -0,0 +1,77 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TokenAuthTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    private static FakeTransport serverWithUsers(String... usernames) {
+        FakeTransport transport = new FakeTransport();
+        for(String username:usernames) {
+            transport.respond("GET /api/v1/users/" + username + "/tokens", 200, "[]")
+                    .respond("POST /api/v1/users/" + username + "/tokens", 201,
+                            "{\"name\":\"app\",\"sha1\":\"" + username + "-token\"}")
+                    .respond("/api/v1/users/" + username, 200, "{\"id\":1,\"username\":\"" + username + "\"}");
+        }
+        return transport;
+    }
+
+    @Test
+    public void concurrentCallsCreateOneToken() throws Exception {
+        FakeTransport transport = serverWithUsers("alice").delay("/api/v1/users/alice/tokens", 200);
+        final GogsAPI api = new GogsAPI(transport, API);
+        api.setTokenAuthName("app");
+
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < 4; i ++) {
+            threads.add(call(api, new User("alice", "secret")));
+        }
+        for(Thread thread:threads) {
+            thread.join(5000);
+        }
+        int creates = 0;
+        for(String request:transport.getRequests()) {
+            if(request.equals("POST /api/v1/users/alice/tokens")) {
+                creates ++;
+            }
+        }
+        assertEquals(1, creates);
+    }
+
+    @Test
+    public void slowTokenRequestsDoNotBlockOtherUsers() throws Exception {
+        FakeTransport transport = serverWithUsers("alice", "bob").delay("/api/v1/users/alice/tokens", 2000);
+        GogsAPI api = new GogsAPI(transport, API);
+        api.setTokenAuthName("app");
+
+        Thread alice = call(api, new User("alice", "secret"));
+        Thread.sleep(100);
+        Thread bob = call(api, new User("bob", "secret"));
+        bob.join(1000);
+        assertFalse("another user's token request blocked authorization", bob.isAlive());
+        assertTrue(alice.isAlive());
+        alice.join(5000);
+    }
+
+    private static Thread call(final GogsAPI api, final User user) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                api.getUser(user, user);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
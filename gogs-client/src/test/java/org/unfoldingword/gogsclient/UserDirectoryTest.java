@@ -0,0 +1,88 @@
+package org.unfoldingword.gogsclient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class UserDirectoryTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    @Test
+    public void matchesSubstringsLikeTheServer() {
+        FakeTransport transport = new FakeTransport().respond("/api/v1/users/search", 200,
+                "{\"ok\":true,\"data\":[{\"id\":1,\"username\":\"john\",\"full_name\":\"John Smith\"},"
+                        + "{\"id\":2,\"username\":\"ohara\",\"full_name\":\"\"}]}");
+        UserDirectory directory = new UserDirectory(new GogsAPI(transport, API), 60000);
+
+        assertEquals(2, directory.searchUsers("oh", 10, null).size());
+        assertEquals(1, transport.getRequests().size());
+
+        // every user containing "ohn" also contains "oh" so the server is not asked again
+        List<User> users = directory.searchUsers("ohn", 10, null);
+        assertEquals(1, users.size());
+        assertEquals("john", users.get(0).getUsername());
+        assertEquals(1, directory.searchUsers("smi", 1, null).size());
+        assertEquals(1, transport.getRequests().size());
+
+        // "jo" does not contain "oh" so the local results may be incomplete
+        directory.searchUsers("jo", 10, null);
+        assertEquals(2, transport.getRequests().size());
+    }
+
+    @Test
+    public void theCachedQueryIsTheOneSent() {
+        final List<String> paths = new ArrayList<>();
+        FakeTransport transport = new FakeTransport();
+        transport.setHandler(new FakeTransport.Handler() {
+            @Override
+            public FakeTransport.Reply handle(String method, String path) {
+                paths.add(path);
+                return new FakeTransport.Reply(200, "{\"ok\":true,\"data\":[{\"id\":1,\"username\":\"john\"}]}");
+            }
+        });
+        UserDirectory directory = new UserDirectory(new GogsAPI(transport, API), 60000);
+
+        assertEquals(1, directory.searchUsers(" JO ", 10, null).size());
+        assertEquals(1, paths.size());
+        assertTrue(paths.get(0).contains("q=jo&") || paths.get(0).endsWith("q=jo"));
+        // "jo" was answered completely so differently written queries for it are answered locally
+        assertEquals(1, directory.searchUsers("jo", 10, null).size());
+        assertEquals(1, directory.searchUsers("Jo", 10, null).size());
+        assertEquals(1, paths.size());
+    }
+
+    @Test
+    public void failedSearchesAreNotComplete() {
+        FakeTransport transport = new FakeTransport();
+        UserDirectory directory = new UserDirectory(new GogsAPI(transport, API), 60000);
+        assertEquals(0, directory.searchUsers("oh", 10, null).size());
+        directory.searchUsers("ohn", 10, null);
+        assertEquals(2, transport.getRequests().size());
+    }
+
+    @Test
+    public void nodesAreBoundedAndPruned() {
+        UserDirectory directory = new UserDirectory(new GogsAPI(new FakeTransport(), API), 60000, 500);
+        for(int i = 0; i < 100; i ++) {
+            directory.add(new User("user-number-" + i, null));
+        }
+        assertTrue(directory.getNodeCount() <= 500);
+        assertTrue(directory.size() < 100);
+        // the most recently added users are kept
+        assertEquals(1, directory.searchUsers("number-99", 1, null).size());
+
+        for(int i = 0; i < 100; i ++) {
+            directory.remove(new User("user-number-" + i, null));
+        }
+        assertEquals(0, directory.size());
+        assertEquals(0, directory.getNodeCount());
+    }
+}
@@ -0,0 +1,210 @@
+package org.unfoldingword.gogsclient;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class UserExportTest {
+
+    private static final String API = "http://gogs.test/api/v1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void exportsEveryUserPastTheServerCap() throws Exception {
+        FakeServer server = new FakeServer(150, 20);
+        File output = folder.newFile("users.jsonl");
+        File checkpoint = new File(folder.getRoot(), "users.checkpoint");
+        UserExport export = new UserExport(new GogsAPI(server.transport, API), new User("admin", "pass"), output, checkpoint);
+        export.setPageSize(50);
+
+        assertTrue(export.run());
+        assertNull(export.getFailure());
+        assertFalse(checkpoint.exists());
+        List<JSONObject> users = read(output);
+        assertEquals(150, users.size());
+        assertEquals(150, ids(users).size());
+        // users are written as the server sent them
+        assertEquals("kept", users.get(0).getString("custom"));
+        assertFalse(users.get(0).has("active"));
+        assertFalse(users.get(0).has("allow_git_hook"));
+    }
+
+    @Test
+    public void resumesFromTheCheckpointAfterCancelling() throws Exception {
+        FakeServer server = new FakeServer(150, 20);
+        File output = folder.newFile("users.jsonl");
+        File checkpoint = new File(folder.getRoot(), "users.checkpoint");
+        GogsAPI api = new GogsAPI(server.transport, API);
+        final UserExport export = new UserExport(api, new User("admin", "pass"), output, checkpoint);
+        export.setConcurrency(1);
+        export.setListener(new UserExport.Listener() {
+            @Override
+            public void onProgress(UserExport.Progress progress) {
+                if(progress.queries == 5) {
+                    export.cancel();
+                }
+            }
+        });
+
+        assertFalse(export.run());
+        assertNull(export.getFailure());
+        assertTrue(checkpoint.exists());
+        assertEquals(5, server.searches.get());
+        int exported = read(output).size();
+        assertTrue(exported > 0 && exported < 150);
+
+        UserExport resumed = new UserExport(api, new User("admin", "pass"), output, checkpoint);
+        assertTrue(resumed.run());
+        assertFalse(checkpoint.exists());
+        List<JSONObject> users = read(output);
+        assertEquals(150, users.size());
+        assertEquals(150, ids(users).size());
+
+        // together the two runs searched exactly as much as one uninterrupted export
+        FakeServer fresh = new FakeServer(150, 20);
+        UserExport full = new UserExport(new GogsAPI(fresh.transport, API), new User("admin", "pass"),
+                folder.newFile("full.jsonl"), new File(folder.getRoot(), "full.checkpoint"));
+        assertTrue(full.run());
+        assertEquals(fresh.searches.get(), server.searches.get());
+        assertEquals(full.getProgress().queries, resumed.getProgress().queries);
+    }
+
+    @Test
+    public void failuresKeepTheCheckpoint() throws Exception {
+        FakeServer server = new FakeServer(60, 20);
+        server.failing = "b";
+        File output = folder.newFile("users.jsonl");
+        File checkpoint = new File(folder.getRoot(), "users.checkpoint");
+        GogsAPI api = new GogsAPI(server.transport, API);
+        UserExport export = new UserExport(api, new User("admin", "pass"), output, checkpoint);
+
+        assertFalse(export.run());
+        assertNotNull(export.getFailure());
+        assertEquals(500, export.getFailure().code);
+        assertTrue(checkpoint.exists());
+
+        server.failing = null;
+        assertTrue(new UserExport(api, new User("admin", "pass"), output, checkpoint).run());
+        assertEquals(60, ids(read(output)).size());
+        assertEquals(60, read(output).size());
+    }
+
+    private static Set<Integer> ids(List<JSONObject> users) {
+        Set<Integer> ids = new HashSet<>();
+        for(JSONObject user:users) {
+            ids.add(user.optInt("id"));
+        }
+        return ids;
+    }
+
+    private static List<JSONObject> read(File file) throws Exception {
+        List<JSONObject> users = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                users.add(new JSONObject(line));
+            }
+        } finally {
+            reader.close();
+        }
+        return users;
+    }
+
+    /**
+     * Answers user searches like Gogs does, returning at most a capped number of users whose name contains the query
+     */
+    private static class FakeServer {
+        final FakeTransport transport = new FakeTransport();
+        final List<String> names = new ArrayList<>();
+        final AtomicInteger searches = new AtomicInteger();
+        volatile String failing = null;
+
+        FakeServer(int users, final int cap) {
+            Random random = new Random(users);
+            String alphabet = "abcdef0123";
+            while(names.size() < users) {
+                StringBuilder sb = new StringBuilder();
+                int length = 3 + random.nextInt(4);
+                for(int i = 0; i < length; i ++) {
+                    sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                if(!names.contains(sb.toString())) {
+                    names.add(sb.toString());
+                }
+            }
+            transport.setHandler(new FakeTransport.Handler() {
+                @Override
+                public FakeTransport.Reply handle(String method, String path) {
+                    try {
+                        return answer(path, cap);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+
+        private FakeTransport.Reply answer(String path, int cap) throws IOException {
+            if(path.startsWith("/api/v1/users/search?")) {
+                searches.incrementAndGet();
+                String query = null;
+                int limit = 10;
+                for(String param:path.substring(path.indexOf('?') + 1).split("&")) {
+                    String[] pair = param.split("=", 2);
+                    if(pair[0].equals("q")) {
+                        query = URLDecoder.decode(pair[1], "UTF-8");
+                    } else if(pair[0].equals("limit")) {
+                        limit = Integer.parseInt(pair[1]);
+                    }
+                }
+                if(query.equals(failing)) {
+                    return new FakeTransport.Reply(500, "");
+                }
+                limit = Math.min(limit, cap);
+                StringBuilder sb = new StringBuilder("{\"ok\":true,\"data\":[");
+                int count = 0;
+                for(int i = 0; i < names.size() && count < limit; i ++) {
+                    if(names.get(i).contains(query)) {
+                        sb.append(count ++ > 0 ? "," : "").append(user(i));
+                    }
+                }
+                return new FakeTransport.Reply(200, sb.append("]}").toString());
+            }
+            if(path.startsWith("/api/v1/users/")) {
+                int index = names.indexOf(path.substring("/api/v1/users/".length()));
+                return index == -1 ? null : new FakeTransport.Reply(200, user(index));
+            }
+            return null;
+        }
+
+        private String user(int index) {
+            return "{\"id\":" + (index + 1) + ",\"username\":\"" + names.get(index) + "\",\"custom\":\"kept\"}";
+        }
+    }
+}